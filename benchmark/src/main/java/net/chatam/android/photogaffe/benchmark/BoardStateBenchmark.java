@@ -0,0 +1,91 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.chatam.android.photogaffe.engine.BoardState;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Moves per second through BoardState and the cost of the solved check.
+ * Moves should not allocate; run with -prof gc to confirm.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardStateBenchmark {
+
+   private static final int MOVES = 1024; // per invocation
+   private static final int MASK = 4095;
+
+   @Param({ "3", "4", "6", "8", "12" })
+   public int gridSize;
+
+   private BoardState state;
+   private final int[] directions = new int[MASK + 1];
+   private int next;
+
+   @Setup
+   public void setUp() {
+      Random random = new Random(1);
+      state = new BoardState(gridSize);
+      state.shuffle(random);
+      for (int i = 0; i < directions.length; i++) {
+         directions[i] = random.nextInt(BoardState.DIRECTION_COUNT);
+      }
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(MOVES)
+   public int move() {
+      int moved = 0;
+      for (int i = 0; i < MOVES; i++) {
+         if (state.move(directions[next++ & MASK])) {
+            moved++;
+         }
+      }
+      return moved;
+   }
+
+   @Benchmark
+   public boolean isSolved() {
+      return state.isSolved();
+   }
+
+   @Benchmark
+   public int manhattanDistance() {
+      return state.getManhattanDistance();
+   }
+}
@@ -0,0 +1,103 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.benchmark;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import net.chatam.android.photogaffe.engine.BoardState;
+import net.chatam.android.photogaffe.engine.CancellationToken;
+import net.chatam.android.photogaffe.engine.ParallelSolver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * How the parallel solver scales with threads: the time to solve the same
+ * six hard 4x4 boards with 1, 2, 4 and 8 search threads.  Compare the
+ * scores across the threads parameter; they only mean something on a
+ * machine with at least that many cores.
+ * The boards are fixed, with shortest solutions of 52 to 58 moves.  Without
+ * a pattern database each takes the single-threaded Solver 0.7 to 2.4 s
+ * and one to five million nodes, about 8 s for the set, so the score is
+ * search time rather than the cost of splitting and handing out subtrees.
+ * Each run is timed once, as a single shot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ParallelSolverBenchmark {
+
+   // tile id at each position, found by scrambling and keeping boards
+   // that need 50 moves or more
+   private static final byte[][] BOARDS = {
+      { 9, 7, 4, 1, 5, 13, 12, 14, 8, 3, 6, 11, 10, 2, 0, 15 }, // 52 moves
+      { 7, 8, 9, 5, 0, 6, 10, 4, 3, 2, 11, 1, 13, 12, 14, 15 }, // 52
+      { 1, 7, 11, 4, 14, 13, 12, 9, 3, 2, 0, 6, 8, 10, 5, 15 }, // 56
+      { 6, 3, 4, 10, 12, 14, 13, 9, 8, 2, 11, 5, 0, 7, 1, 15 }, // 56
+      { 7, 11, 3, 6, 12, 8, 9, 14, 2, 10, 5, 0, 1, 13, 4, 15 }, // 56
+      { 5, 14, 10, 12, 3, 7, 11, 6, 9, 1, 4, 13, 2, 0, 8, 15 }, // 58
+   };
+
+   @Param({ "1", "2", "4", "8" })
+   public int threads;
+
+   private BoardState[] boards;
+   private ExecutorService executor;
+   private ParallelSolver solver;
+
+   @Setup
+   public void setUp() {
+      boards = new BoardState[BOARDS.length];
+      for (int i = 0; i < BOARDS.length; i++) {
+         boards[i] = new BoardState(4);
+         boards[i].setTiles(BOARDS[i]);
+      }
+      executor = Executors.newFixedThreadPool(threads);
+      solver = new ParallelSolver(4, null, executor, threads);
+   }
+
+   @TearDown
+   public void tearDown() {
+      executor.shutdown();
+   }
+
+   /** Solves all six boards; the score is the time for the set. */
+   @Benchmark
+   public int solveAll() {
+      int moves = 0;
+      for (BoardState board : boards) {
+         moves += solver.solve(board, new CancellationToken()).length;
+      }
+      return moves;
+   }
+}
@@ -0,0 +1,76 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.chatam.android.photogaffe.engine.BoardState;
+import net.chatam.android.photogaffe.engine.Permutations;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of producing a shuffled board (what GameBoard.shuffleTiles runs) and
+ * of the solvability test, from 3x3 to 12x12.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShuffleBenchmark {
+
+   @Param({ "3", "4", "5", "6", "7", "8", "9", "10", "11", "12" })
+   public int gridSize;
+
+   private BoardState state;
+   private Random random;
+   private byte[] tiles;
+
+   @Setup
+   public void setUp() {
+      random = new Random(1);
+      state = new BoardState(gridSize);
+      state.shuffle(random);
+      tiles = new byte[state.getCellCount()];
+      state.copyTiles(tiles);
+   }
+
+   @Benchmark
+   public int shuffle() {
+      state.shuffle(random);
+      return state.getManhattanDistance();
+   }
+
+   @Benchmark
+   public boolean isSolvable() {
+      return Permutations.isSolvable(tiles, gridSize);
+   }
+}
@@ -0,0 +1,111 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.chatam.android.photogaffe.engine.BoardState;
+import net.chatam.android.photogaffe.engine.CancellationToken;
+import net.chatam.android.photogaffe.engine.ReductionSolver;
+import net.chatam.android.photogaffe.engine.Scrambler;
+import net.chatam.android.photogaffe.engine.Solver;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Solver throughput on fixed sets of boards.  The optimal solver also
+ * reports nodes expanded per second.  4x4 boards are medium scrambles so an
+ * iteration finishes without a pattern database.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SolverBenchmark {
+
+   private static final int BOARDS = 8;
+
+   /** Nodes expanded, reported by JMH as nodes per second. */
+   @AuxCounters(AuxCounters.Type.OPERATIONS)
+   @State(Scope.Thread)
+   public static class Nodes {
+      public long nodes;
+
+      @Setup(Level.Iteration)
+      public void clear() {
+         nodes = 0;
+      }
+   }
+
+   @Param({ "3", "4" })
+   public int optimalGridSize;
+
+   private BoardState[] optimalBoards;
+   private Solver solver;
+   private BoardState[] largeBoards;
+   private ReductionSolver reductionSolver;
+   private int next;
+
+   @Setup
+   public void setUp() {
+      optimalBoards = new BoardState[BOARDS];
+      for (int i = 0; i < BOARDS; i++) {
+         optimalBoards[i] = new BoardState(optimalGridSize);
+         new Scrambler(optimalBoards[i]).scramble(optimalGridSize == 3
+               ? Scrambler.Difficulty.RANDOM : Scrambler.Difficulty.MEDIUM, i);
+      }
+      solver = new Solver(optimalGridSize);
+
+      Random random = new Random(1);
+      largeBoards = new BoardState[BOARDS];
+      for (int i = 0; i < BOARDS; i++) {
+         largeBoards[i] = new BoardState(6);
+         largeBoards[i].shuffle(random);
+      }
+      reductionSolver = new ReductionSolver(6);
+   }
+
+   @Benchmark
+   public int[] optimal(Nodes counters) {
+      int[] solution = solver.solve(optimalBoards[next++ % BOARDS],
+            new CancellationToken());
+      counters.nodes += solver.getNodeCount();
+      return solution;
+   }
+
+   @Benchmark
+   public int[] reduction6x6() {
+      return reductionSolver.solve(largeBoards[next++ % BOARDS],
+            new CancellationToken());
+   }
+}
@@ -0,0 +1,203 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import net.chatam.android.photogaffe.engine.BoardState;
+import net.chatam.android.photogaffe.engine.MoveJournal;
+import net.chatam.android.photogaffe.engine.Permutations;
+
+/**
+ * An in-progress puzzle, for saving across process death.  The format is
+ * <pre>
+ *   byte    format version
+ *   byte    grid size
+ *   byte[]  tile at each position (grid size squared)
+ *   byte    blank position, as a check on the tiles
+ *   int     move count
+ *   long    scramble seed
+ *   UTF     picture URI
+ *   journal moves made so far, as written by MoveJournal (version 2 on)
+ * </pre>
+ * in DataOutputStream byte order.  The board itself fits in a few dozen
+ * bytes; the journal adds a quarter of a byte for every move recorded, so a
+ * long game makes a proportionally longer snapshot.
+ */
+public final class BoardSnapshot {
+
+   private static final int FORMAT_VERSION = 2;
+   private static final int FIRST_JOURNAL_VERSION = 2;
+
+   private final short gridSize;
+   private final byte[] tiles;
+   private final int blankIndex;
+   private final int moveCount;
+   private final long seed;
+   private final String imageUri;
+   private final MoveJournal journal;
+
+   /**
+    * @param gridSize row and column count
+    * @param tiles tile at each position, with the blank as the largest id;
+    *        must be a solvable arrangement
+    * @param moveCount the player's score so far; not negative.  It need not
+    *        match the journal, since a slide of several tiles may count as
+    *        one move and undoing or redoing a move counts as another
+    * @param seed seed of the scramble
+    * @param imageUri location of the picture
+    * @param journal moves made so far; copied
+    */
+   public BoardSnapshot(short gridSize, byte[] tiles, int moveCount,
+         long seed, String imageUri, MoveJournal journal) {
+      if (gridSize < 2 || gridSize > BoardState.MAX_GRID_SIZE) {
+         throw new IllegalArgumentException("Bad grid size " + gridSize);
+      }
+      int cellCount = gridSize * gridSize;
+      if (tiles.length != cellCount) {
+         throw new IllegalArgumentException("Expected " + cellCount
+               + " tiles, got " + tiles.length);
+      }
+      boolean[] seen = new boolean[cellCount];
+      int blank = -1;
+      for (int position = 0; position < cellCount; position++) {
+         int tile = tiles[position] & 0xFF;
+         if (tile >= cellCount || seen[tile]) {
+            throw new IllegalArgumentException("Bad tile " + tile + " at "
+                  + position);
+         }
+         seen[tile] = true;
+         if (tile == cellCount - 1) {
+            blank = position;
+         }
+      }
+      if (!Permutations.isSolvable(tiles, gridSize)) {
+         throw new IllegalArgumentException("Tiles cannot be solved");
+      }
+      if (moveCount < 0) {
+         throw new IllegalArgumentException("Bad move count " + moveCount);
+      }
+      this.gridSize = gridSize;
+      this.tiles = tiles.clone();
+      this.blankIndex = blank;
+      this.moveCount = moveCount;
+      this.seed = seed;
+      this.imageUri = imageUri;
+      this.journal = new MoveJournal(journal);
+   }
+
+   /**
+    * @return the snapshot in the format described above
+    */
+   public byte[] toBytes() {
+      ByteArrayOutputStream bytes =
+            new ByteArrayOutputStream(tiles.length + 24 + imageUri.length());
+      DataOutputStream out = new DataOutputStream(bytes);
+      try {
+         out.writeByte(FORMAT_VERSION);
+         out.writeByte(gridSize);
+         out.write(tiles);
+         out.writeByte(blankIndex);
+         out.writeInt(moveCount);
+         out.writeLong(seed);
+         out.writeUTF(imageUri);
+         journal.write(out);
+      } catch (IOException e) {
+         throw new IllegalStateException(e); // not thrown by a byte array
+      }
+      return bytes.toByteArray();
+   }
+
+   /**
+    * @param data bytes from toBytes()
+    * @return the snapshot
+    * @throws IOException if the data is truncated, from another version or
+    *         not a valid, solvable board
+    */
+   public static BoardSnapshot fromBytes(byte[] data) throws IOException {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+      int version = in.readUnsignedByte();
+      if (version < 1 || version > FORMAT_VERSION) {
+         throw new IOException("Unknown snapshot version " + version);
+      }
+      short gridSize = (short) in.readUnsignedByte();
+      if (gridSize < 2 || gridSize > BoardState.MAX_GRID_SIZE) {
+         throw new IOException("Bad grid size " + gridSize);
+      }
+      byte[] tiles = new byte[gridSize * gridSize];
+      in.readFully(tiles);
+      int blankIndex = in.readUnsignedByte();
+      int moveCount = in.readInt();
+      long seed = in.readLong();
+      String imageUri = in.readUTF();
+      MoveJournal journal = new MoveJournal();
+      if (version >= FIRST_JOURNAL_VERSION) {
+         journal.read(in);
+      }
+
+      BoardSnapshot snapshot;
+      try {
+         snapshot = new BoardSnapshot(gridSize, tiles, moveCount, seed,
+               imageUri, journal);
+      } catch (IllegalArgumentException e) {
+         throw new IOException(e.getMessage());
+      }
+      if (snapshot.blankIndex != blankIndex) {
+         throw new IOException("Blank is not at " + blankIndex);
+      }
+      return snapshot;
+   }
+
+   public short getGridSize() {
+      return gridSize;
+   }
+
+   /**
+    * @return a copy of the tile at each position
+    */
+   public byte[] getTiles() {
+      return tiles.clone();
+   }
+
+   public int getBlankIndex() {
+      return blankIndex;
+   }
+
+   public int getMoveCount() {
+      return moveCount;
+   }
+
+   public long getSeed() {
+      return seed;
+   }
+
+   public String getImageUri() {
+      return imageUri;
+   }
+
+   /**
+    * @return a copy of the moves made so far
+    */
+   public MoveJournal getJournal() {
+      return new MoveJournal(journal);
+   }
+}
@@ -0,0 +1,476 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.os.SystemClock;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.animation.AnimationUtils;
+import android.view.animation.Interpolator;
+
+import net.chatam.android.photogaffe.engine.BoardState;
+import net.chatam.android.photogaffe.engine.Instrumentation;
+
+/**
+ * Draws the whole game board in one view.  Each tile is a rectangle of the
+ * board's picture drawn at its current position; the blank is a solid color.
+ * A tap, or a fling toward the blank, is turned into a board position by
+ * dividing by the tile size and passed to the GameBoard.  When tiles slide,
+ * only the part of the row or column they move along is redrawn.
+ * Moves change the board state at once, so taps are never lost or held
+ * back, but the view draws its own copy of the arrangement and plays the
+ * slides on it one after another, in order.  The more slides are waiting,
+ * the faster each one plays, so the picture keeps up with any tapping
+ * speed; past MAX_PENDING_SLIDES the oldest waiting slide is skipped.
+ */
+public final class BoardView extends View {
+
+   private static final int BLANK_COLOR = Color.BLACK;
+   private static final long MOVE_DURATION_MS = 200; // with none waiting
+   private static final long MIN_MOVE_DURATION_MS = 40; // however many wait
+   private static final int MAX_PENDING_SLIDES = 16;
+   private static final float LABEL_TEXT_SIZE_SP = 14;
+   private static final int TIMINGS_BACKGROUND = 0xC0000000;
+   private static final long NANOS_PER_MILLI = 1000000;
+
+   private GameBoard board; // receives touches
+   private BoardState state; // arrangement to draw (owned by the board)
+   private Bitmap picture; // the board's picture, shared by all tiles
+   private int gridSize;
+   private int tileWidth; // pixels
+   private int tileHeight; // pixels
+   private Rect[] sources; // part of the picture for each tile id
+   private boolean numbersVisible = false; // should labels be displayed
+   private boolean timingsVisible = false; // should timings be displayed
+   private final Rect destination = new Rect();
+   private final Rect dirty = new Rect();
+   private final Paint picturePaint = new Paint();
+   private final Paint blankPaint = new Paint();
+   private final Paint labelPaint = new Paint();
+   private final Paint timingsPaint = new Paint();
+   private final Paint timingsBackgroundPaint = new Paint();
+   private final Rect timingsBounds = new Rect(); // where they were drawn
+   private final Interpolator interpolator;
+   private final GestureDetector gestures;
+   private byte[] shown; // tile id at each position, as drawn
+   private boolean sliding = false; // are tiles sliding into place?
+   private int slideFrom; // where the blank was before the slide
+   private int slideTo; // where the blank is now
+   private int slideStep; // position difference from slideFrom to slideTo
+   private int slideDx; // pixels each sliding tile moves, horizontally
+   private int slideDy; // and vertically
+   private long slideStart; // uptime millis when the slide began
+   private long slideDuration; // millis, shorter when slides are waiting
+   // blank's from and to positions of each slide waiting to be played
+   private final int[] pendingSlides = new int[MAX_PENDING_SLIDES * 2];
+   private int pendingFirst; // index of the oldest in pendingSlides
+   private int pendingCount;
+   private long slideSpan; // Instrumentation span of the slide
+   private long touchSpan; // span from a gesture to the next frame
+
+   public BoardView(Context context, AttributeSet attrs) {
+      super(context, attrs);
+      interpolator = AnimationUtils.loadInterpolator(context,
+            R.anim.tile_interpolator);
+      gestures = new GestureDetector(context, new TouchListener());
+      blankPaint.setColor(BLANK_COLOR);
+      labelPaint.setColor(Color.RED);
+      labelPaint.setTypeface(Typeface.DEFAULT_BOLD);
+      labelPaint.setAntiAlias(true);
+      labelPaint.setTextSize(LABEL_TEXT_SIZE_SP
+            * getResources().getDisplayMetrics().scaledDensity);
+      timingsPaint.setColor(Color.WHITE);
+      timingsPaint.setAntiAlias(true);
+      timingsPaint.setTextSize(labelPaint.getTextSize());
+      timingsBackgroundPaint.setColor(TIMINGS_BACKGROUND);
+   }
+
+   /**
+    * Show a board.  The view reads the board state when drawing, so the
+    * GameBoard only has to call invalidate or animateSlide after a change.
+    * @param board receives touches
+    * @param state the arrangement to draw
+    * @param picture the board's picture
+    */
+   public void setBoard(GameBoard board, BoardState state, Bitmap picture) {
+      this.board = board;
+      this.state = state;
+      this.picture = picture;
+      this.gridSize = state.getGridSize();
+      this.tileWidth = picture.getWidth() / gridSize;
+      this.tileHeight = picture.getHeight() / gridSize;
+      this.sliding = false;
+      this.pendingCount = 0;
+
+      int cellCount = state.getCellCount();
+      shown = new byte[cellCount];
+      state.copyTiles(shown);
+      sources = new Rect[cellCount];
+      for (int row = 0; row < gridSize; row++) {
+         for (int column = 0; column < gridSize; column++) {
+            sources[row * gridSize + column] = new Rect(column * tileWidth,
+                  row * tileHeight, (column + 1) * tileWidth,
+                  (row + 1) * tileHeight);
+         }
+      }
+      requestLayout();
+      invalidate();
+   }
+
+   /**
+    * Should the tiles' correct locations be displayed?
+    * @param visible true if the labels should be displayed
+    */
+   public void setNumbersVisible(boolean visible) {
+      this.numbersVisible = visible;
+      invalidate();
+   }
+
+   /**
+    * Should frame and touch timings be drawn over the board?  They are only
+    * recorded while Instrumentation is enabled.
+    * @param visible true if the timings should be displayed
+    */
+   public void setTimingsVisible(boolean visible) {
+      this.timingsVisible = visible;
+      invalidate();
+   }
+
+   /**
+    * Animate tiles that have just moved in the board state: every tile
+    * between the blank's old and new positions slides one cell toward the
+    * old position, together.  If a slide is still playing, this one plays
+    * after it.
+    * @param blankFrom the blank's position before the move
+    * @param blankTo the blank's position now, in the same row or column
+    */
+   public void animateSlide(int blankFrom, int blankTo) {
+      if (pendingCount == MAX_PENDING_SLIDES) {
+         // too far behind: stop the slide playing and show the oldest
+         // waiting one without playing it
+         invalidateCells(slideFrom, slideTo);
+         sliding = false;
+         int oldest = pendingFirst * 2;
+         moveShown(pendingSlides[oldest], pendingSlides[oldest + 1]);
+         invalidateCells(pendingSlides[oldest], pendingSlides[oldest + 1]);
+         pendingFirst = (pendingFirst + 1) % MAX_PENDING_SLIDES;
+         pendingCount--;
+      }
+      int last = (pendingFirst + pendingCount) % MAX_PENDING_SLIDES * 2;
+      pendingSlides[last] = blankFrom;
+      pendingSlides[last + 1] = blankTo;
+      pendingCount++;
+      if (!sliding) {
+         nextSlide();
+      }
+   }
+
+   /* (non-Javadoc)
+    * Start playing the oldest waiting slide, if any.  Once none are left,
+    * the drawn arrangement is checked against the board state, in case the
+    * board was changed without a slide (a new puzzle, say) while slides
+    * were playing.
+    */
+   private void nextSlide() {
+      sliding = false;
+      while (pendingCount > 0) {
+         int blankFrom = pendingSlides[pendingFirst * 2];
+         int blankTo = pendingSlides[pendingFirst * 2 + 1];
+         pendingFirst = (pendingFirst + 1) % MAX_PENDING_SLIDES;
+         pendingCount--;
+         if ((shown[blankFrom] & 0xFF) != state.getBlankTile()) {
+            continue; // left over from before the board was changed
+         }
+         moveShown(blankFrom, blankTo);
+         int columns = state.getColumn(blankTo) - state.getColumn(blankFrom);
+         int rows = state.getRow(blankTo) - state.getRow(blankFrom);
+         sliding = true;
+         slideFrom = blankFrom;
+         slideTo = blankTo;
+         slideStep = Integer.signum(rows) * gridSize + Integer.signum(columns);
+         slideDx = Integer.signum(columns) * tileWidth;
+         slideDy = Integer.signum(rows) * tileHeight;
+         slideStart = SystemClock.uptimeMillis();
+         slideDuration = Math.max(MIN_MOVE_DURATION_MS,
+               MOVE_DURATION_MS / (1 + pendingCount));
+         slideSpan = Instrumentation.start();
+         invalidateCells(blankFrom, blankTo);
+         return;
+      }
+      if (!isShowingState()) {
+         state.copyTiles(shown);
+         invalidate();
+      }
+   }
+
+   /* (non-Javadoc)
+    * Move the blank in the drawn arrangement, sliding each tile between its
+    * old and new positions one cell toward the old one.
+    */
+   private void moveShown(int blankFrom, int blankTo) {
+      int columns = state.getColumn(blankTo) - state.getColumn(blankFrom);
+      int rows = state.getRow(blankTo) - state.getRow(blankFrom);
+      int step = Integer.signum(rows) * gridSize + Integer.signum(columns);
+      byte blank = shown[blankFrom];
+      for (int cell = blankFrom; cell != blankTo; cell += step) {
+         shown[cell] = shown[cell + step];
+      }
+      shown[blankTo] = blank;
+   }
+
+   /* (non-Javadoc)
+    * Does the drawn arrangement match the board state?
+    */
+   private boolean isShowingState() {
+      for (int position = 0; position < shown.length; position++) {
+         if ((shown[position] & 0xFF) != state.getTileAt(position)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   @Override
+   protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+      if (picture == null) {
+         super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+      } else {
+         setMeasuredDimension(tileWidth * gridSize, tileHeight * gridSize);
+      }
+   }
+
+   @Override
+   protected void onDraw(Canvas canvas) {
+      if (state == null) {
+         return;
+      }
+      long frameSpan = Instrumentation.start();
+      if (!sliding) {
+         state.copyTiles(shown); // it may have changed without a slide
+      }
+      for (int position = 0; position < state.getCellCount(); position++) {
+         setCell(position, destination);
+         if (canvas.quickReject(destination.left, destination.top,
+               destination.right, destination.bottom, Canvas.EdgeType.BW)) {
+            continue; // outside the area being redrawn
+         }
+         int tile = shown[position] & 0xFF;
+         if (tile == state.getBlankTile() || isSliding(position)) {
+            canvas.drawRect(destination, blankPaint);
+         } else {
+            drawTile(canvas, tile);
+         }
+      }
+      if (sliding) {
+         drawSlidingTiles(canvas);
+      }
+      Instrumentation.stop(Instrumentation.Stage.FRAME, frameSpan);
+      if (touchSpan != 0) {
+         Instrumentation.stop(Instrumentation.Stage.TOUCH_TO_FRAME, touchSpan);
+         touchSpan = 0;
+      }
+      if (timingsVisible) {
+         drawTimings(canvas);
+      }
+   }
+
+   /* (non-Javadoc)
+    * Draw the frame and touch timings in the top left corner.  The space
+    * they take is remembered so they are redrawn when they change.
+    */
+   private void drawTimings(Canvas canvas) {
+      String[] lines = {
+            "frame " + Instrumentation.get(Instrumentation.Stage.FRAME),
+            "touch " + Instrumentation.get(
+                  Instrumentation.Stage.TOUCH_TO_FRAME) };
+      float lineHeight = timingsPaint.getFontSpacing();
+      float width = 0;
+      for (String line : lines) {
+         width = Math.max(width, timingsPaint.measureText(line));
+      }
+      timingsBounds.set(0, 0, (int) Math.ceil(width),
+            (int) Math.ceil(lineHeight * lines.length));
+      canvas.drawRect(timingsBounds, timingsBackgroundPaint);
+      for (int i = 0; i < lines.length; i++) {
+         canvas.drawText(lines[i], 0,
+               i * lineHeight - timingsPaint.ascent(), timingsPaint);
+      }
+   }
+
+   /* (non-Javadoc)
+    * Is there a tile sliding into this position?  They fill the cells from
+    * the blank's old position up to, but not including, its new one.
+    */
+   private boolean isSliding(int position) {
+      if (!sliding) {
+         return false;
+      }
+      for (int cell = slideFrom; cell != slideTo; cell += slideStep) {
+         if (cell == position) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /* (non-Javadoc)
+    * Draw the sliding tiles part of the way from their old cells, and ask
+    * for another frame until the slide is over.
+    */
+   private void drawSlidingTiles(Canvas canvas) {
+      long elapsed = SystemClock.uptimeMillis() - slideStart;
+      float remaining = elapsed >= slideDuration ? 0
+            : 1 - interpolator.getInterpolation(
+                  (float) elapsed / slideDuration);
+      int dx = Math.round(remaining * slideDx);
+      int dy = Math.round(remaining * slideDy);
+      for (int cell = slideFrom; cell != slideTo; cell += slideStep) {
+         setCell(cell, destination);
+         destination.offset(dx, dy);
+         drawTile(canvas, shown[cell] & 0xFF);
+      }
+      if (elapsed >= slideDuration) {
+         Instrumentation.stop(Instrumentation.Stage.SLIDE, slideSpan);
+         if (timingsVisible) {
+            invalidate(timingsBounds);
+         }
+         nextSlide();
+      } else {
+         invalidateCells(slideFrom, slideTo);
+      }
+   }
+
+   /* (non-Javadoc)
+    * Draw a tile's picture (and label) into the destination rectangle.
+    */
+   private void drawTile(Canvas canvas, int tile) {
+      canvas.drawBitmap(picture, sources[tile], destination, picturePaint);
+      if (numbersVisible) {
+         // A tile's id is its correct position; the label is cached there
+         canvas.drawText(TileLocation.forPosition(tile, gridSize).toString(),
+               destination.left, destination.top - labelPaint.ascent(),
+               labelPaint);
+      }
+   }
+
+   private void setCell(int position, Rect cell) {
+      int left = state.getColumn(position) * tileWidth;
+      int top = state.getRow(position) * tileHeight;
+      cell.set(left, top, left + tileWidth, top + tileHeight);
+   }
+
+   /* (non-Javadoc)
+    * Redraw only the two cells (and the space between them).
+    */
+   private void invalidateCells(int first, int second) {
+      setCell(first, dirty);
+      int left = state.getColumn(second) * tileWidth;
+      int top = state.getRow(second) * tileHeight;
+      dirty.union(left, top, left + tileWidth, top + tileHeight);
+      invalidate(dirty);
+   }
+
+   @Override
+   public boolean onTouchEvent(MotionEvent event) {
+      return board != null && gestures.onTouchEvent(event);
+   }
+
+   /* (non-Javadoc)
+    * The board position under a touch, or -1 if it is outside the board.
+    */
+   private int positionAt(MotionEvent event) {
+      int column = (int) event.getX() / tileWidth;
+      int row = (int) event.getY() / tileHeight;
+      if (event.getX() < 0 || column >= gridSize || event.getY() < 0
+            || row >= gridSize) {
+         return -1;
+      }
+      return row * gridSize + column;
+   }
+
+   /* (non-Javadoc)
+    * Pass a gesture to the GameBoard, timing how long the event took to
+    * arrive and, from here, how long until the move is on screen.
+    */
+   private void touch(int position, MotionEvent event) {
+      if (Instrumentation.isEnabled()) {
+         Instrumentation.record(Instrumentation.Stage.INPUT_DELAY,
+               (SystemClock.uptimeMillis() - event.getEventTime())
+                  * NANOS_PER_MILLI);
+         touchSpan = Instrumentation.start();
+      }
+      board.touchPosition(position);
+   }
+
+   /* (non-Javadoc)
+    * A tap or a fling is one action, so each one reaches the GameBoard
+    * exactly once however many touch events it is made of.
+    */
+   private final class TouchListener
+         extends GestureDetector.SimpleOnGestureListener {
+
+      @Override
+      public boolean onDown(MotionEvent event) {
+         return true; // needed to see the rest of the gesture
+      }
+
+      @Override
+      public boolean onSingleTapUp(MotionEvent event) {
+         int position = positionAt(event);
+         if (position >= 0) {
+            touch(position, event);
+         }
+         return true;
+      }
+
+      /* (non-Javadoc)
+       * A fling only counts if it starts on a tile in the blank's row or
+       * column and heads toward the blank.
+       */
+      @Override
+      public boolean onFling(MotionEvent start, MotionEvent end,
+            float velocityX, float velocityY) {
+         int position = positionAt(start);
+         if (position < 0) {
+            return false;
+         }
+         int toward = state.lineDirectionTo(position); // blank's way
+         int flung;
+         if (Math.abs(velocityX) > Math.abs(velocityY)) {
+            flung = velocityX < 0 ? BoardState.LEFT : BoardState.RIGHT;
+         } else {
+            flung = velocityY < 0 ? BoardState.UP : BoardState.DOWN;
+         }
+         // The tiles move opposite to the blank
+         if (toward < 0 || flung != BoardState.opposite(toward)) {
+            return false;
+         }
+         touch(position, end);
+         return true;
+      }
+   }
+}
@@ -17,43 +17,58 @@ Copyright (C) 2011  Wade Chatam
 
 package net.chatam.android.photogaffe;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.Random;
 
 import android.app.Activity;
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.Color;
-import android.view.animation.AnimationUtils;
-import android.widget.TableLayout;
-import android.widget.TableRow;
+import android.widget.Toast;
+
+import net.chatam.android.photogaffe.engine.BoardState;
+import net.chatam.android.photogaffe.engine.Instrumentation;
+import net.chatam.android.photogaffe.engine.MoveJournal;
+import net.chatam.android.photogaffe.engine.Scrambler;
+import net.chatam.android.photogaffe.engine.Scrambler.Difficulty;
+import net.chatam.android.photogaffe.engine.TranspositionTable;
 
 /**
- * The game class that consists of the tiles (and views) and determines if the
- * user has correctly solved the puzzle.
- * TileViews are stationary.  Tiles move around and are given to TileViews to 
- * display.
+ * The game class that consists of the tiles and determines if the user has
+ * correctly solved the puzzle.
+ * The arrangement lives in a BoardState; the BoardView draws it and passes
+ * touches back here.
  * @author wadechatam
  *
  */
 public final class GameBoard {
 
+   // 4096 arrangements (64 KB); beyond that some are forgotten
+   private static final int VISITED_SIZE_LOG2 = 12;
+   // shorter trips away and back are just a tile moved out and back in
+   private static final int MIN_WASTED_MOVES = 6;
+
    private static GameBoard board = null; // Singleton instance - can be 
                                  // changed by calling
                                  // createGameBoard class method
-   private List<Tile> tiles = null;
-   private List<TileView> tileViews = null;
-   private List<TableRow> tableRow = null;
-   private Tile theBlankTile; // The empty square
-   private Bitmap bitmap; // Picture used for puzzle
-   private TableLayout parentLayout;
+   private Bitmap bitmap; // Picture used for puzzle, shared by all tiles
+   private boolean ownsBitmap; // true if bitmap is a scaled copy made here
+   private BoardView boardView;
    private short gridSize; // This number represents the row and column count
                       // 3 = 3x3; 4 = 4x4; 5 = 5x5; etc.
    private Context context;
    private int boardWidth; // pixel count
    private int boardHeight; // pixel count
-   private int moveCount; // number of tile clicks from the user (score)
+   private int moveCount; // number of moves from the user (score)
+   private boolean countingEachTile = true; // or each slide as one move
+   private BoardState state; // tile arrangement, independent of the view
+   private Scrambler scrambler;
+   private MoveJournal journal = new MoveJournal(); // for undo and redo
+   private long seed; // seed of the current scramble, for reproducing it
+   private int version; // changes whenever the arrangement changes
+   private final Random random = new Random();
+   // move count at which each arrangement of this puzzle was last seen
+   private final TranspositionTable visited = 
+         new TranspositionTable(VISITED_SIZE_LOG2);
+   private int visitedGeneration; // one per puzzle
 
    /* (non-Javadoc)
     * Private constructor to force access to class instance through 
@@ -61,21 +76,33 @@ public final class GameBoard {
     */
    private GameBoard(Context context, 
                  Bitmap bitmap, 
-                 TableLayout parentLayout, 
+                 BoardView boardView, 
                  int width, 
                  int height,
-                 short gridSize) {      
+                 short gridSize,
+                 BoardSnapshot snapshot) {      
       this.context = context;
       this.boardWidth = width;
       this.boardHeight = height;
+      long scaleSpan = Instrumentation.start();
       this.bitmap = Bitmap.createScaledBitmap(bitmap, 
             this.boardWidth, 
             this.boardHeight, 
             true);
+      Instrumentation.stop(Instrumentation.Stage.SCALE, scaleSpan);
+      // createScaledBitmap returns the original if it is already the size
+      this.ownsBitmap = this.bitmap != bitmap;
       this.moveCount = 0;      
-      this.parentLayout = parentLayout;
+      this.boardView = boardView;
       this.gridSize = gridSize;
-      init();
+      this.state = new BoardState(gridSize);
+      this.scrambler = new Scrambler(state);
+      boardView.setBoard(this, state, this.bitmap);
+      if (snapshot == null) {
+         shuffleTiles();
+      } else {
+         restore(snapshot);
+      }
    }
 
    /**
@@ -83,144 +110,187 @@ public final class GameBoard {
     * 
     * @param context
     * @param bitmap The picture to be used for the puzzle
-    * @param parentLayout The primary table layout for storing TileViews
+    * @param boardView The view that draws the board
     * @param width The board width in pixels
     * @param height The board height in pixels
     * @param gridSize The row and column count. (3 = 3x3, 4 = 4x4, etc.)
+    * @param snapshot A saved puzzle to continue, or null for a new one.  Its
+    * grid size is used instead of gridSize.
     * @return an instance of the GameBoard that will be used for game play.
     */
    public static GameBoard createGameBoard(Context context, 
                                  Bitmap bitmap, 
-                                 TableLayout parentLayout,
+                                 BoardView boardView,
                                  int width,
                                  int height,
-                                 short gridSize) {
+                                 short gridSize,
+                                 BoardSnapshot snapshot) {
 
+      if (board != null) {
+         board.release();
+      }
       board = new GameBoard(context, 
                        bitmap, 
-                       parentLayout, 
+                       boardView, 
                        width, 
                        height, 
-                       gridSize);
+                       snapshot == null ? gridSize : snapshot.getGridSize(),
+                       snapshot);
        
       return board;
    }
-   
-   /* (non-Javadoc)
-    * Create tiles and views. Then shuffle.
+
+   /**
+    * Cut the same picture into a different number of tiles and start a new
+    * puzzle with them.  The picture is not decoded or scaled again.
+    * @param gridSize The new row and column count
     */
-   private void init() {
-      initializeLists();   
-      createTiles();
-      createTileViews();
+   public void setGridSize(short gridSize) {
+      if (gridSize == this.gridSize) {
+         return;
+      }
+      this.gridSize = gridSize;
+      this.state = new BoardState(gridSize);
+      this.scrambler = new Scrambler(state);
+      this.journal.clear();
+      boardView.setBoard(this, state, bitmap);
       shuffleTiles();
    }
 
+   /**
+    * Re-arrange the tiles into a solvable puzzle of the difficulty chosen
+    * in the settings.
+    */
+   public void shuffleTiles() {
+      scramble(SettingsActivity.getDifficulty(context), random.nextLong());
+   }
+
+   /**
+    * Re-arrange the tiles into a puzzle of the given difficulty.  The same
+    * seed always produces the same puzzle.
+    * @param difficulty how far from solved the puzzle should be
+    * @param seed seed for the scramble
+    */
+   public void scramble(Difficulty difficulty, long seed) {
+      this.seed = seed;
+      long shuffleSpan = Instrumentation.start();
+      scrambler.scramble(difficulty, seed);
+      Instrumentation.stop(Instrumentation.Stage.SHUFFLE, shuffleSpan);
+      journal.clear();
+      version++;
+      boardView.invalidate();
+      moveCount = 0;
+      forgetVisited();
+   }
+
+   /**
+    * Re-arrange the tiles by sliding the blank a number of random steps away
+    * from the solved puzzle.
+    * @param moves length of the random walk
+    * @param seed seed for the walk
+    */
+   public void scramble(int moves, long seed) {
+      this.seed = seed;
+      long shuffleSpan = Instrumentation.start();
+      scrambler.randomWalk(moves, seed);
+      Instrumentation.stop(Instrumentation.Stage.SHUFFLE, shuffleSpan);
+      journal.clear();
+      version++;
+      boardView.invalidate();
+      moveCount = 0;
+      forgetVisited();
+   }
+
    /* (non-Javadoc)
-    * Creates new objects for tiles, tile views, and table rows.
+    * Put the tiles back as they were saved.  The grid size must already
+    * match.
     */
-   private void initializeLists() {
-      if (tiles == null) {
-         tiles = new ArrayList<Tile> (gridSize * gridSize);
+   private void restore(BoardSnapshot snapshot) {
+      state.setTiles(snapshot.getTiles());
+      moveCount = snapshot.getMoveCount();
+      seed = snapshot.getSeed();
+      journal = snapshot.getJournal();
+      version++;
+      boardView.invalidate();
+      if (state.isSolved()) {
+         shuffleTiles(); // saved after it was finished
       } else {
-         // Be sure to clean up old tiles
-         for (int i = 0; i < tiles.size(); i++) {
-            tiles.get(i).freeBitmap();
-            tiles = new ArrayList<Tile> (gridSize * gridSize);
-         }
+         forgetVisited();
       }
-      tileViews = new ArrayList<TileView> (gridSize * gridSize);
-      tableRow = new ArrayList<TableRow> (gridSize);
+   }
 
-      for (int row = 0; row < gridSize; row++) {
-         tableRow.add(new TableRow(context));            
-      }
+   /**
+    * Save the puzzle in progress.
+    * @param imageUri location of this board's picture
+    * @return a snapshot that createGameBoard can continue from
+    */
+   public BoardSnapshot snapshot(String imageUri) {
+      byte[] arrangement = new byte[state.getCellCount()];
+      state.copyTiles(arrangement);
+      return new BoardSnapshot(gridSize, arrangement, moveCount, seed, 
+            imageUri, journal);
    }
 
-   /* (non-Javadoc)
-    * Cut the picture into pieces and assign it to tiles.
+   /**
+    * @return the seed of the current puzzle's scramble
     */
-   private void createTiles() {
-      int   tile_width = bitmap.getWidth() / gridSize;
-      int tile_height = bitmap.getHeight() / gridSize;
-
-      for (short row = 0; row < gridSize; row++) {
-         for (short column = 0; column < gridSize; column++) {
-            Bitmap bm = Bitmap.createBitmap(bitmap,
-                  column * tile_width,
-                  row * tile_height,
-                  tile_width,
-                  tile_height);
-
-            // if final, Tile -> blank
-            if ((row == gridSize - 1) && (column == gridSize - 1)) {
-               bm = Bitmap.createBitmap(tile_width, 
-                                  tile_height, 
-                                  bm.getConfig());
-               bm.eraseColor(Color.BLACK);
-               theBlankTile = new Tile(bm, row, column);
-               tiles.add(theBlankTile);
-            } else {
-               tiles.add(new Tile(bm, row, column));
-            }            
-         } // end column         
-      } // end row
-      bitmap.recycle();
-   }   
+   public long getSeed() {
+      return seed;
+   }
 
-   /* (non-Javadoc)
-    * Initialize the tile views and add them to the table layout.
+   /**
+    * Notifies the game board that a board position has been tapped or
+    * flung toward the blank.  Typically only called by the BoardView.
+    * @param position the touched position (row * gridSize + column)
     */
-   private void createTileViews() {      
-      for (short row = 0; row < gridSize; row++) {
-         for (short column = 0; column < gridSize; column++) {
-            TileView tv = new TileView(context, row, column);
-            tileViews.add(tv);             
-            tableRow.get(row).addView(tv);
-         } // end column
-         parentLayout.addView(tableRow.get(row));
-      } // end row
+   public void touchPosition(int position) {
+      long moveSpan = Instrumentation.start();
+      slideBlankTo(position);
+      Instrumentation.stop(Instrumentation.Stage.MOVE, moveSpan);
    }
 
    /**
-    * Re-arrange the tiles into a solvable puzzle.
+    * Choose how sliding several tiles at once is scored.
+    * @param eachTile true to count every tile that moves, false to count
+    * the whole slide as one move
     */
-   public void shuffleTiles() {
-      do {
-         Collections.shuffle(tiles);
-         
-         // Place the blank tile at the end
-         tiles.remove(theBlankTile);
-         tiles.add(theBlankTile);
-         
-         for (short row = 0; row < gridSize; row++) {
-            for (short column = 0; column < gridSize; column++) {
-               tileViews.get(row * gridSize + column).setCurrentTile(
-                     tiles.get(row * gridSize + column));
-            }
-         }
-      } while (!isSolvable());
-      moveCount = 0;
+   public void setCountingEachTile(boolean eachTile) {
+      this.countingEachTile = eachTile;
    }
 
    /**
-    * Notifies the game board that a tile view has been touched.  Typically
-    * only called by the TileViews.
-    * @param tv the TileView that was touched.
+    * Slide the blank one step as if the user had touched the tile in that
+    * direction.  Used for hints and automatic solving.
+    * @param direction BoardState.UP, DOWN, LEFT or RIGHT
     */
-   public static void notifyTileViewUpdate(TileView tv) {
-      board.tileViewUpdate(tv);
+   public void moveBlank(int direction) {
+      int position = state.neighbor(state.getBlankIndex(), direction);
+      if (position >= 0) {
+         slideBlankTo(position);
+      }
    }
 
-   /* (non-Javadoc)
-    * Updates the board when the specified TileView has changed by swapping its
-    * position with the empty square.
-    * @param tv the TileView that was touched
+   /**
+    * Copy the current arrangement, e.g. to solve it on another thread.
+    * @return a new board state equal to this board's
     */
-   private void tileViewUpdate(TileView tv) {
-      swapTileWithBlank(tv);
+   public BoardState copyState() {
+      BoardState copy = new BoardState(gridSize);
+      byte[] arrangement = new byte[state.getCellCount()];
+      state.copyTiles(arrangement);
+      copy.setTiles(arrangement);
+      return copy;
    }
-   
+
+   /**
+    * A number that changes whenever the arrangement changes, so work based
+    * on an earlier copy of the state can tell that it is out of date.
+    * @return the current version
+    */
+   public int getVersion() {
+      return version;
+   }
+
    /**
     * Get the current "score"
     * @return the number of tile moves
@@ -230,158 +300,134 @@ public final class GameBoard {
    }
 
    /* (non-Javadoc)
-    * Determines if the current tile arrangement is solvable.  This is
-    * mathematically provable by determining the number of incorrectly ordered
-    * tiles (permutations).  If the number of permutations plus taxicab
-    * distance of the blank tile is even, then the puzzle is solvable.
-    * Pseudo-code for algorithm:
-    *   Start with the first tile on the board (top-left)
-    *   Determine its correct location
-    *   For all of the tiles that follow it on the board, determine if they
-    *     should come before the current tile.  If so, that tile is considered
-    *     out of order and should increment the out-of-order count.
-    *   Repeat for following tiles.
-    *   If out-of-order count + row number of blank is even, it is solvable
-    * To better understand the code, it is easier to quickly read the comments
-    * below completely, then go back and read the code. 
-    * For game consistency, the last tile (bottom-right) is always the blank.
-    * Putting the blank tile at its correct location reduces its taxicab 
-    * distance to 0, so its row number can be ignored.
-    * 
-    * http://mathworld.wolfram.com/15Puzzle.html
-    * http://en.wikipedia.org/wiki/Fifteen_puzzle
+    * Determine if the entire board is correctly solved by all of the tiles
+    * being in the correct location.  Each move re-evaluates only the tile that
+    * moved, so this does not scan the board.
+    */
+   private boolean isCorrect() {
+      return state.isSolved();
+   }
+
+   /* (non-Javadoc)
+    * Determine if the position touched is in the blank tile's row or column.
+    * If so, slide every tile in between toward the blank in one update. If
+    * this solves the puzzle, congratulate the user on being the smartest
+    * person in the world (or insult them for taking so many moves).  
     */
-   private boolean isSolvable() {
-      short permutations = 0; // the number of incorrect orderings of tiles
-      short currentTileViewLocationScore;
-      short subsequentTileViewLocationScore;
-      
-      // Start at the first tile
-      for (int i = 0; i < tiles.size() - 2; i++) {
-         Tile tile = tiles.get(i);
-
-         // Determine the tile's location value
-         currentTileViewLocationScore = computeLocationValue(
-               tile.getCorrectLocation());
-         
-         // Compare the tile's location score to all of the tiles that
-         // follow it
-         for (int j = i + 1; j < tiles.size() - 1; j++)
-         {
-            Tile tSub = tiles.get(j);
-            
-            subsequentTileViewLocationScore = computeLocationValue(
-                  tSub.getCorrectLocation());
-               
-            // If a tile is found to be out of order, increment the number
-            // of permutations.
-            if (currentTileViewLocationScore > 
-                  subsequentTileViewLocationScore) {
-               permutations++;
-            }
-         }
+   private void slideBlankTo(int position) {
+      int blankIndex = state.getBlankIndex();
+      int direction = state.lineDirectionTo(position);
+      if (direction < 0) {
+         return;
+      }
+      int count = state.slideBlankTo(position);
+      for (int i = 0; i < count; i++) {
+         journal.record(direction);
+      }
+      moved(blankIndex, count);
+      if (!isCorrect()) {
+         checkRevisited();
       }
-      // return whether number of permutations is even
-      return permutations % 2 == 0;
+   }
+
+   /**
+    * Take back the last move.  Undoing counts as a move.
+    * @return false if there was nothing to undo
+    */
+   public boolean undo() {
+      if (!journal.canUndo()) {
+         return false;
+      }
+      return replay(BoardState.opposite(journal.undo()));
+   }
+
+   /**
+    * Make the last undone move again.  Redoing counts as a move.
+    * @return false if there was nothing to redo
+    */
+   public boolean redo() {
+      if (!journal.canRedo()) {
+         return false;
+      }
+      return replay(journal.redo());
    }
 
    /* (non-Javadoc)
-    * Determine if the entire board is correctly solved by all of the tiles
-    * being in the correct location.
+    * Move the blank for an undo or redo without touching the journal.
     */
-   private boolean isCorrect() {
-      // if a single tile is incorrect, return false
-      for (Tile tile : tiles) {
-         if (!tile.isCorrect()) {
-            return false;
-         }
+   private boolean replay(int direction) {
+      int blankIndex = state.getBlankIndex();
+      int position = state.neighbor(blankIndex, direction);
+      if (position < 0) {
+         journal.clear(); // does not belong to this board
+         return false;
       }
+      state.move(direction);
+      moved(blankIndex, 1);
       return true;
    }
 
    /* (non-Javadoc)
-    * Determine if the tile view clicked is adjacent to the blank tile. If so,
-    * swap their locations. If this swap solves the puzzle, congratulate the
-    * user on being the smartest person in the world (or insult them for taking
-    * so many moves).  
+    * One or more tiles have slid toward the blank's old spot.  The whole
+    * slide is drawn, scored and checked once.
     */
-   private void swapTileWithBlank(TileView tv) {
-      Tile tile = tv.getCurrentTile();
-      
-      TileView theBlankTileView = tileViews.get(
-            computeLocationValue(theBlankTile.getCurrentLocation()));
-
-      if (tile.getCurrentLocation().isAdjacent(
-            theBlankTile.getCurrentLocation())) {
-         
-         // Animate tile movement
-         if (tile.getCurrentLocation().getColumn() < 
-            theBlankTile.getCurrentLocation().getColumn()) {
-            theBlankTileView.bringToFront();
-            //LEFT
-            theBlankTileView.startAnimation(AnimationUtils.loadAnimation(
-                  this.context, R.anim.left_animation));
-            
-         } else if (tile.getCurrentLocation().getColumn() > 
-                  theBlankTile.getCurrentLocation().getColumn()) {
-            theBlankTileView.bringToFront();
-            //RIGHT
-            theBlankTileView.startAnimation(AnimationUtils.loadAnimation(
-                  this.context, R.anim.right_animation));
-            
-         } else if (tile.getCurrentLocation().getRow() < 
-                  theBlankTile.getCurrentLocation().getRow()) {
-            theBlankTileView.bringToFront();
-            //UP            
-            theBlankTileView.startAnimation(AnimationUtils.loadAnimation(
-                  this.context, R.anim.up_animation));
-            
-         } else if (tile.getCurrentLocation().getRow() > 
-                  theBlankTile.getCurrentLocation().getRow()) {
-            theBlankTileView.bringToFront();
-            //DOWN
-            theBlankTileView.startAnimation(AnimationUtils.loadAnimation(
-                  this.context, R.anim.down_animation));
-         }         
-         theBlankTileView.setCurrentTile(tile);
-         tv.setCurrentTile(theBlankTile);
-         moveCount++;
-      }            
+   private void moved(int blankIndex, int count) {
+      boardView.animateSlide(blankIndex, state.getBlankIndex());
+      moveCount += countingEachTile ? count : 1;
+      version++;
 
+      // Only a move can complete the puzzle, and the board state keeps
+      // the misplaced count current, so this check is constant time.
       if (isCorrect()) {
          ((Activity)context).showDialog(PuzzleActivity.DIALOG_COMPLETED_ID);
       }
    }
 
    /* (non-Javadoc)
-    * Return the location on the board for the given row and column, in the
-    * range 0 to gridSize-1.  For instance, on a 4x4 grid the 2nd row 2nd
-    * column should have the value 5.
+    * Start remembering arrangements afresh from the current one, for a new
+    * puzzle.
     */
-   private short computeLocationValue(short row, short column) {
-      return (short) (gridSize * row + column);
+   private void forgetVisited() {
+      visitedGeneration++;
+      visited.put(state.getHash(), visitedGeneration, moveCount);
    }
-   
+
    /* (non-Javadoc)
-    * Return the location on the board for the given row and column, in the
-    * range 0 to gridSize-1.  For instance, on a 4x4 grid the 2nd row 2nd
-    * column should have the value 5.
+    * After a move by the user, point out when the tiles are back where they
+    * were a number of moves ago.  Undo and redo do not count: going back is
+    * what they are for.  Each lookup is a hash probe, not a replay of the
+    * journal.
     */
-   private short computeLocationValue(TileLocation location) {
-      return computeLocationValue(location.getRow(), location.getColumn());
+   private void checkRevisited() {
+      long hash = state.getHash();
+      int seen = visited.get(hash, visitedGeneration);
+      if (seen >= 0 && moveCount - seen >= MIN_WASTED_MOVES) {
+         Toast.makeText(context, R.string.revisited, 
+               Toast.LENGTH_SHORT).show();
+      }
+      visited.put(hash, visitedGeneration, moveCount);
    }
-   
+
    /**
     * Sets the visibility of the titles for the tiles.
     * @param visible True if the tile's correct location should be displayed.
     * False, otherwise.
     */
    public void setNumbersVisible(boolean visible) {
-      for (TileView tv : tileViews) {
-         tv.setNumbersVisible(visible);
-      }
+      boardView.setNumbersVisible(visible);
    }
    
+   /* (non-Javadoc)
+    * Free the scaled copy of the picture once this board is replaced.  The
+    * caller's picture is left alone.
+    */
+   private void release() {
+      if (ownsBitmap) {
+         bitmap.recycle();
+      }
+      bitmap = null;
+   }
+
    /**
     * Returns the number of rows and columns in this instance of the game board
     * @return number of rows and columns
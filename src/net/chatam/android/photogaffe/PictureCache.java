@@ -0,0 +1,272 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.util.Log;
+
+/**
+ * Keeps pictures that have already been decoded at a board size, so
+ * replaying a recent photo does not decode it again.  Recently used pictures
+ * stay in memory, bounded by their size in bytes; every picture is also
+ * written to the cache directory as a JPEG, bounded by total file size.
+ * Entries are keyed by the picture's URI, its last-modified time and the
+ * board size.  The grid size is not part of the key, since every grid draws
+ * from the same picture.
+ * Safe to use from several threads.  Bitmaps handed out are shared, so
+ * callers must not recycle them.
+ */
+public final class PictureCache {
+
+   private static final String TAG = "PictureCache";
+   private static final String DIRECTORY = "pictures";
+   private static final int MEMORY_FRACTION = 8; // of the app's heap
+   private static final long MAX_DISK_BYTES = 12 * 1024 * 1024;
+   private static final int JPEG_QUALITY = 95;
+   private static PictureCache instance = null;
+
+   private final File directory;
+   private final long maxMemoryBytes;
+   private long memoryBytes = 0;
+   private final LinkedHashMap<String, Bitmap> memory = // in access order
+         new LinkedHashMap<String, Bitmap>(16, 0.75f, true);
+
+   private PictureCache(Context context) {
+      ActivityManager activityManager = (ActivityManager)
+            context.getSystemService(Context.ACTIVITY_SERVICE);
+      this.maxMemoryBytes = activityManager.getMemoryClass() * 1024L * 1024L
+            / MEMORY_FRACTION;
+      this.directory = new File(context.getCacheDir(), DIRECTORY);
+   }
+
+   /**
+    * @param context
+    * @return the cache shared by the whole app
+    */
+   public static synchronized PictureCache getInstance(Context context) {
+      if (instance == null) {
+         instance = new PictureCache(context.getApplicationContext());
+      }
+      return instance;
+   }
+
+   /**
+    * Build the key for a picture at a board size.  Reads the picture's
+    * last-modified time, so call from a background thread.
+    * @param context
+    * @param uri location of the picture
+    * @param width board width in pixels
+    * @param height board height in pixels
+    * @return the key
+    */
+   public static String keyFor(Context context, Uri uri, int width,
+         int height) {
+      return uri + "@" + lastModified(context, uri) + "/" + width + "x"
+            + height;
+   }
+
+   /* (non-Javadoc)
+    * The last-modified time of a picture, or 0 if it cannot be found, so an
+    * edited photo is not served from the cache.
+    */
+   private static long lastModified(Context context, Uri uri) {
+      if ("file".equals(uri.getScheme())) {
+         return new File(uri.getPath()).lastModified();
+      }
+      Cursor cursor = null;
+      try {
+         cursor = context.getContentResolver().query(uri,
+               new String[] { MediaStore.MediaColumns.DATE_MODIFIED },
+               null, null, null);
+         if (cursor != null && cursor.moveToFirst()) {
+            return cursor.getLong(0);
+         }
+      } catch (RuntimeException e) {
+         // Not a media store URI; rely on the URI alone
+      } finally {
+         if (cursor != null) {
+            cursor.close();
+         }
+      }
+      return 0;
+   }
+
+   /**
+    * @param key from keyFor()
+    * @return the picture if it is in memory, otherwise null
+    */
+   public synchronized Bitmap getFromMemory(String key) {
+      Bitmap picture = memory.get(key);
+      if (picture != null && picture.isRecycled()) {
+         remove(key);
+         picture = null;
+      }
+      return picture;
+   }
+
+   /**
+    * @param key from keyFor()
+    * @return the file holding the picture, or null if it is not on disk
+    */
+   public File getFile(String key) {
+      File file = fileFor(key);
+      if (!file.exists()) {
+         return null;
+      }
+      file.setLastModified(System.currentTimeMillis()); // recently used
+      return file;
+   }
+
+   /**
+    * Keep a picture in memory only, e.g. after reading it from its file.
+    * @param key from keyFor()
+    * @param picture the decoded picture
+    */
+   public synchronized void putInMemory(String key, Bitmap picture) {
+      remove(key);
+      memory.put(key, picture);
+      memoryBytes += byteCount(picture);
+      Iterator<Map.Entry<String, Bitmap>> eldest =
+            memory.entrySet().iterator();
+      while (memoryBytes > maxMemoryBytes && memory.size() > 1) {
+         // Evicted pictures may still be on screen, so they are left for
+         // the garbage collector rather than recycled.
+         memoryBytes -= byteCount(eldest.next().getValue());
+         eldest.remove();
+      }
+   }
+
+   /**
+    * Keep a newly decoded picture in memory and write it to disk.  Slow;
+    * call from a background thread.
+    * @param key from keyFor()
+    * @param picture the decoded picture
+    */
+   public void put(String key, Bitmap picture) {
+      putInMemory(key, picture);
+      synchronized (directory) {
+         try {
+            write(key, picture);
+            trimDisk();
+         } catch (IOException e) {
+            Log.w(TAG, "Could not cache " + key, e);
+         }
+      }
+   }
+
+   private void remove(String key) {
+      Bitmap old = memory.remove(key);
+      if (old != null) {
+         memoryBytes -= byteCount(old);
+      }
+   }
+
+   private static long byteCount(Bitmap picture) {
+      return (long) picture.getRowBytes() * picture.getHeight();
+   }
+
+   /* (non-Javadoc)
+    * Write through a temporary file so a partly written picture is never
+    * read back.
+    */
+   private void write(String key, Bitmap picture) throws IOException {
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+         throw new IOException("Could not create " + directory);
+      }
+      File file = fileFor(key);
+      File partial = new File(file.getPath() + ".part");
+      OutputStream out = new FileOutputStream(partial);
+      try {
+         if (!picture.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY,
+               out)) {
+            throw new IOException("Could not compress " + key);
+         }
+      } finally {
+         out.close();
+      }
+      if (!partial.renameTo(file)) {
+         partial.delete();
+         throw new IOException("Could not rename " + partial);
+      }
+   }
+
+   /* (non-Javadoc)
+    * Delete the least recently used files until the rest fit.
+    */
+   private void trimDisk() {
+      File[] files = directory.listFiles();
+      if (files == null) {
+         return;
+      }
+      long total = 0;
+      for (File file : files) {
+         total += file.length();
+      }
+      if (total <= MAX_DISK_BYTES) {
+         return;
+      }
+      Arrays.sort(files, new Comparator<File>() {
+         public int compare(File a, File b) {
+            long difference = a.lastModified() - b.lastModified();
+            return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+         }
+      });
+      for (int i = 0; i < files.length - 1 && total > MAX_DISK_BYTES; i++) {
+         total -= files[i].length();
+         files[i].delete();
+      }
+   }
+
+   /* (non-Javadoc)
+    * Keys contain URIs, so the file name is a digest of the key.
+    */
+   private File fileFor(String key) {
+      try {
+         byte[] digest = MessageDigest.getInstance("SHA-1").digest(
+               key.getBytes("UTF-8"));
+         StringBuilder name = new StringBuilder(digest.length * 2 + 4);
+         for (byte b : digest) {
+            name.append(Character.forDigit((b >> 4) & 0xF, 16));
+            name.append(Character.forDigit(b & 0xF, 16));
+         }
+         return new File(directory, name.append(".jpg").toString());
+      } catch (NoSuchAlgorithmException e) {
+         throw new IllegalStateException(e);
+      } catch (UnsupportedEncodingException e) {
+         throw new IllegalStateException(e);
+      }
+   }
+}
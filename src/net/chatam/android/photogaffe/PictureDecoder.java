@@ -0,0 +1,206 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+import net.chatam.android.photogaffe.engine.PictureSizing;
+
+/**
+ * Decodes a picture at the board size.  PictureSizing picks the part of the
+ * image to use, the sample size and the pixel format from the board size and
+ * the memory this app may use, which prevents OutOfMemory exceptions when
+ * loading large images from the SD card.  JPEG and PNG images are read once
+ * through a region decoder; other formats need a pass to read the image size
+ * first.
+ * decode() is slow and meant for a background thread; cancel() may be called
+ * from any thread.
+ */
+public final class PictureDecoder {
+
+   private static final int MEMORY_FRACTION = 4; // of the app's heap
+
+   private final Context context;
+   private final long maxBytes; // for the decoded picture and its copy
+   private volatile boolean cancelled = false;
+   private volatile BitmapFactory.Options options; // decode in progress
+
+   public PictureDecoder(Context context) {
+      this.context = context;
+      ActivityManager activityManager = (ActivityManager)
+            context.getSystemService(Context.ACTIVITY_SERVICE);
+      this.maxBytes = activityManager.getMemoryClass() * 1024L * 1024L
+            / MEMORY_FRACTION;
+   }
+
+   /**
+    * Stop a decode in progress.  decode() then returns null.
+    */
+   public void cancel() {
+      cancelled = true;
+      BitmapFactory.Options current = options;
+      if (current != null) {
+         current.requestCancelDecode();
+      }
+   }
+
+   /**
+    * @return true if cancel() has been called
+    */
+   public boolean isCancelled() {
+      return cancelled;
+   }
+
+   /**
+    * Returns the picture at the given location scaled to exactly the board
+    * size, so the GameBoard can use it without making another copy.
+    * @param uri location of the picture
+    * @param boardWidth width in pixels
+    * @param boardHeight height in pixels
+    * @return the picture, or null if cancelled
+    * @throws FileNotFoundException if the picture is not on the device
+    * @throws IOException if the picture cannot be read
+    * @throws IllegalArgumentException if the picture cannot be decoded
+    */
+   public Bitmap decode(Uri uri, int boardWidth, int boardHeight)
+         throws FileNotFoundException, IOException,
+               IllegalArgumentException {
+      Bitmap decoded;
+      BitmapFactory.Options options = new BitmapFactory.Options();
+      options.inDither = true;
+      this.options = options;
+      InputStream is = context.getContentResolver().openInputStream(uri);
+      try {
+         BitmapRegionDecoder decoder = null;
+         try {
+            decoder = BitmapRegionDecoder.newInstance(is, false);
+         } catch (IOException e) {
+            // Not a JPEG or PNG; decoded below the old way
+         }
+         if (decoder != null) {
+            PictureSizing sizing = PictureSizing.plan(decoder.getWidth(),
+                  decoder.getHeight(), boardWidth, boardHeight, maxBytes);
+            setSampling(options, sizing);
+            decoded = cancelled ? null : decoder.decodeRegion(
+                  new Rect(sizing.getLeft(), sizing.getTop(),
+                        sizing.getRight(), sizing.getBottom()),
+                  options);
+            decoder.recycle();
+            return fitToBoard(decoded, boardWidth, boardHeight);
+         }
+      } finally {
+         is.close();
+      }
+
+      options.inJustDecodeBounds = true;
+      is = context.getContentResolver().openInputStream(uri);
+      try {
+         BitmapFactory.decodeStream(is, null, options);
+      } finally {
+         is.close();
+      }
+      if (cancelled) {
+         return null;
+      }
+      if (options.outWidth <= 0 || options.outHeight <= 0) {
+         throw new IllegalArgumentException("Not an image: " + uri);
+      }
+      // Without a region decoder a crop is made after decoding, so plan
+      // the decode for the whole image.
+      PictureSizing sizing = PictureSizing.plan(options.outWidth,
+            options.outHeight, boardWidth, boardHeight, maxBytes);
+      options.inJustDecodeBounds = false;
+      setSampling(options, sizing);
+      is = context.getContentResolver().openInputStream(uri);
+      try {
+         decoded = BitmapFactory.decodeStream(is, null, options);
+      } finally {
+         is.close();
+      }
+      if (decoded != null
+            && sizing.isCropped(options.outWidth, options.outHeight)) {
+         int sample = sizing.getSampleSize();
+         Bitmap cropped = Bitmap.createBitmap(decoded,
+               sizing.getLeft() / sample, sizing.getTop() / sample,
+               Math.min(decoded.getWidth(), sizing.getRight() / sample)
+                  - sizing.getLeft() / sample,
+               Math.min(decoded.getHeight(), sizing.getBottom() / sample)
+                  - sizing.getTop() / sample);
+         if (cropped != decoded) {
+            decoded.recycle();
+         }
+         decoded = cropped;
+      }
+      return fitToBoard(decoded, boardWidth, boardHeight);
+   }
+
+   /**
+    * Reads back a picture that was cached at the board size.
+    * @param file the cached picture
+    * @param boardWidth width in pixels
+    * @param boardHeight height in pixels
+    * @return the picture, or null if cancelled or it could not be read
+    */
+   public Bitmap decodeFile(File file, int boardWidth, int boardHeight) {
+      BitmapFactory.Options options = new BitmapFactory.Options();
+      options.inDither = true;
+      this.options = options;
+      setSampling(options, PictureSizing.plan(boardWidth, boardHeight,
+            boardWidth, boardHeight, maxBytes));
+      Bitmap decoded = BitmapFactory.decodeFile(file.getPath(), options);
+      if (decoded == null) {
+         return null;
+      }
+      return fitToBoard(decoded, boardWidth, boardHeight);
+   }
+
+   private static void setSampling(BitmapFactory.Options options,
+         PictureSizing sizing) {
+      options.inSampleSize = sizing.getSampleSize();
+      options.inPreferredConfig =
+            sizing.getBytesPerPixel() == PictureSizing.FULL_COLOR
+            ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565;
+   }
+
+   private Bitmap fitToBoard(Bitmap decoded, int width, int height) {
+      if (cancelled) {
+         if (decoded != null) {
+            decoded.recycle();
+         }
+         return null;
+      }
+      if (decoded == null) {
+         throw new IllegalArgumentException("Image could not be decoded");
+      }
+      Bitmap scaled = Bitmap.createScaledBitmap(decoded, width, height, true);
+      if (scaled != decoded) {
+         decoded.recycle();
+      }
+      return scaled;
+   }
+}
@@ -17,26 +17,39 @@ Copyright (C) 2011  Wade Chatam
 
 package net.chatam.android.photogaffe;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
+import android.app.ProgressDialog;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.provider.MediaStore;
 import android.util.DisplayMetrics;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
-import android.widget.TableLayout;
+import android.widget.Toast;
+
+import net.chatam.android.photogaffe.engine.BoardState;
+import net.chatam.android.photogaffe.engine.CancellationToken;
+import net.chatam.android.photogaffe.engine.Instrumentation;
+import net.chatam.android.photogaffe.engine.PerfectTable;
+import net.chatam.android.photogaffe.engine.ReductionSolver;
+import net.chatam.android.photogaffe.engine.Solver;
 
 /**
  * This is the primary @class Activity for the PhotoGaffe application.  It
@@ -50,20 +63,127 @@ public final class PuzzleActivity extends Activity {
    public static final int DIALOG_PICASA_ERROR_ID = 0;
    public static final int DIALOG_GRID_SIZE_ID = 1;
    public static final int DIALOG_COMPLETED_ID = 2;
+   public static final int DIALOG_LOADING_ID = 3;
+   private static final long SOLVER_BUDGET_MS = 10000; // give up after this
+   private static final long OPTIMAL_BUDGET_MS = 3000; // then settle for less
+   private static final int MAX_OPTIMAL_GRID_SIZE = 4;
+   private static final long AUTO_SOLVE_STEP_MS = 250; // delay between moves
+   private static final String SNAPSHOT_KEY = "snapshot";
+   private static final String PENDING_URI_KEY = "pendingUri";
+   private static final String SNAPSHOT_FILE = "puzzle.snapshot";
+   private static final String TAG = "PuzzleActivity";
    private GameBoard board;
-   private Bitmap bitmap; // temporary holder for puzzle picture
+   private Bitmap bitmap; // picture of the current board
+   private Uri imageUri; // location of the current board's picture
    private boolean numbersVisible = false; // Whether a title is displayed that
                                   // shows the correct location of the
                                  // tiles.
+   private final Handler handler = new Handler();
+   private PrepareTask prepareTask; // picture being decoded, if any
+   private Uri pendingUri; // picture to decode, until a board is made of it
+   private BoardSnapshot pendingSnapshot; // puzzle to continue once decoded
+   private SolveTask solveTask; // running hint or solve search, if any
+   private int[] autoSolution; // moves being played by auto-solve
+   private int autoSolveIndex; // next move of autoSolution to play
+   private int autoSolveVersion; // board version the next move applies to
 
    @Override
    public void onCreate(Bundle savedInstanceState) {
       super.onCreate(savedInstanceState);
       this.setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_PORTRAIT);//sets the orientation to portrait
       setContentView(R.layout.board);
-      selectImageFromGallery();
+
+      // Continue the puzzle that was in progress: from the saved instance
+      // state if the process was killed, otherwise from the last one
+      // played.  If the activity was recreated while the Gallery was open,
+      // the picked picture arrives in onActivityResult.
+      BoardSnapshot snapshot = null;
+      if (savedInstanceState != null) {
+         snapshot = readSnapshot(savedInstanceState.getByteArray(SNAPSHOT_KEY));
+         String uri = savedInstanceState.getString(PENDING_URI_KEY);
+         if (snapshot == null && uri != null) {
+            startPreparing(Uri.parse(uri), null);
+         }
+      } else {
+         snapshot = readSnapshotFile();
+         if (snapshot == null) {
+            selectImageFromGallery();
+         }
+      }
+      if (snapshot != null) {
+         startPreparing(Uri.parse(snapshot.getImageUri()), snapshot);
+      }
    }    
 
+   @Override
+   protected void onSaveInstanceState(Bundle outState) {
+      super.onSaveInstanceState(outState);
+      BoardSnapshot snapshot = board != null && imageUri != null 
+            ? board.snapshot(imageUri.toString()) : pendingSnapshot;
+      if (snapshot != null) {
+         outState.putByteArray(SNAPSHOT_KEY, snapshot.toBytes());
+      } else if (pendingUri != null) {
+         outState.putString(PENDING_URI_KEY, pendingUri.toString());
+      }
+   }
+
+   private static BoardSnapshot readSnapshot(byte[] data) {
+      if (data == null) {
+         return null;
+      }
+      try {
+         return BoardSnapshot.fromBytes(data);
+      } catch (IOException e) {
+         Log.w(TAG, "Ignoring saved puzzle", e);
+         return null;
+      }
+   }
+
+   /* (non-Javadoc)
+    * The snapshot file is a few dozen bytes, so it is read and written on
+    * the UI thread.  A file that cannot be read is deleted, so it is not
+    * tried again on every start.
+    */
+   private BoardSnapshot readSnapshotFile() {
+      try {
+         InputStream in = openFileInput(SNAPSHOT_FILE);
+         try {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            byte[] buffer = new byte[256];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+               data.write(buffer, 0, count);
+            }
+            BoardSnapshot snapshot = readSnapshot(data.toByteArray());
+            if (snapshot == null) {
+               deleteFile(SNAPSHOT_FILE);
+            }
+            return snapshot;
+         } finally {
+            in.close();
+         }
+      } catch (FileNotFoundException e) {
+         return null; // nothing played yet
+      } catch (IOException e) {
+         Log.w(TAG, "Could not read " + SNAPSHOT_FILE, e);
+         deleteFile(SNAPSHOT_FILE);
+         return null;
+      }
+   }
+
+   private void writeSnapshotFile(BoardSnapshot snapshot) {
+      try {
+         OutputStream out = openFileOutput(SNAPSHOT_FILE, MODE_PRIVATE);
+         try {
+            out.write(snapshot.toBytes());
+         } finally {
+            out.close();
+         }
+      } catch (IOException e) {
+         Log.w(TAG, "Could not write " + SNAPSHOT_FILE, e);
+      }
+   }
+
    /* (non-Javadoc)
     * Will start an intent for external Gallery app.  
     * Image returned via onActivityResult().
@@ -86,73 +206,152 @@ public final class PuzzleActivity extends Activity {
       if (resultCode == RESULT_OK) {
          switch (requestCode) {
          case IMAGEREQUESTCODE:
-            Uri imageUri = i.getData();
-            
-            try {
-               bitmap = createScaledBitmap(imageUri);
-            } catch (FileNotFoundException e) {
-               // You see, what had happened was...
-               // When using the Gallery app for selecting an image, the 
-               // Gallery will display the user's on-line Picasa web
-               // albums.  If the user attempts to select one of the
-               // pictures from their Picasa web albums, Gingerbread and 
-               // earlier versions of the OS will throw this exception.
-               // Honeycomb and later will automatically download the 
-               // picture.  This catch will be called for Gingerbread
-               // users and just tell them that we do not support using
-               // Picasa web album pictures for their version of Android.
-               // They will then be prompted to select another picture from
-               // the Gallery.
-               showDialog(DIALOG_PICASA_ERROR_ID);
-            } catch (IOException e) {
-               e.printStackTrace();
-               finish();
-            } catch (IllegalArgumentException e) {
-               showDialog(DIALOG_PICASA_ERROR_ID);
-            }
-            
-            createGameBoard(SettingsActivity.getGridSize(this));
+            startPreparing(i.getData(), null);
             break;
          } // end switch
       } // end if
    }
-   
+
    /* (non-Javadoc)
-    * Returns a scaled image of the bitmap at the given location.  This helps
-    * prevent OutOfMemory exceptions when loading large images from the SD
-    * card.
+    * Decode the picture for a new board in the background while a progress
+    * dialog is shown.  Replaces any picture still being decoded.
+    * @param snapshot saved puzzle to continue, or null to start a new one
     */
-   private Bitmap createScaledBitmap(Uri uri) 
-         throws FileNotFoundException, IOException, 
-               IllegalArgumentException {
-      InputStream is = getContentResolver().openInputStream(uri);
-      DisplayMetrics metrics = new DisplayMetrics();
-      getWindowManager().getDefaultDisplay().getMetrics(metrics);
-      
-      BitmapFactory.Options boundingBox = new BitmapFactory.Options();
-      boundingBox.inJustDecodeBounds = true;
-      boundingBox.inDither = true;
-      BitmapFactory.decodeStream(is, null, boundingBox);
-      is.close();
-      
-      int screenSize = (int) (metrics.widthPixels * metrics.density *
-            metrics.heightPixels * metrics.density);
-      int imageSize = boundingBox.outWidth * boundingBox.outHeight;
-      
-      BitmapFactory.Options pictureOptions = new BitmapFactory.Options();
+   private void startPreparing(Uri imageUri, BoardSnapshot snapshot) {
+      cancelPreparing();
+      DisplayMetrics metrics = getDisplayMetrics();
+      pendingUri = imageUri;
+      pendingSnapshot = snapshot;
+      prepareTask = new PrepareTask(imageUri, snapshot, metrics.widthPixels, 
+            metrics.heightPixels);
+      showDialog(DIALOG_LOADING_ID);
+      prepareTask.execute();
+   }
 
-      //TODO improve the mechanism for determining if an image should be
-      // sampled based on memory available and size of image.
-      if (imageSize > screenSize) {
-         pictureOptions.inSampleSize = 8;
-//            Integer.highestOneBit((int) Math.ceil(imageSize / screenSize));
+   /* (non-Javadoc)
+    * Stop decoding.  pendingUri and pendingSnapshot are kept so the decode
+    * can be restarted when the activity resumes.
+    */
+   private void cancelPreparing() {
+      if (prepareTask != null) {
+         prepareTask.cancelDecode();
+         prepareTask = null;
+         dismissDialog(DIALOG_LOADING_ID);
       }
-      
-      pictureOptions.inDither = true;
-      is = getContentResolver().openInputStream(uri);
-      Bitmap bitmap = BitmapFactory.decodeStream(is, null, pictureOptions);
-      is.close();
-      return bitmap;
+   }
+
+   /* (non-Javadoc)
+    * Decodes the picture off the UI thread.  Only creating the board from
+    * the finished picture happens back on the UI thread.
+    */
+   private final class PrepareTask extends AsyncTask<Void, Void, Bitmap> {
+
+      private final Uri uri;
+      private final BoardSnapshot snapshot; // puzzle to continue, if any
+      private final int width; // board size in pixels
+      private final int height;
+      private final PictureDecoder decoder = 
+            new PictureDecoder(PuzzleActivity.this);
+      private Exception error; // why the picture could not be decoded
+
+      PrepareTask(Uri uri, BoardSnapshot snapshot, int width, int height) {
+         this.uri = uri;
+         this.snapshot = snapshot;
+         this.width = width;
+         this.height = height;
+      }
+
+      void cancelDecode() {
+         decoder.cancel();
+         cancel(false);
+      }
+
+      @Override
+      protected Bitmap doInBackground(Void... params) {
+         long decodeSpan = Instrumentation.start();
+         Bitmap picture = preparePicture();
+         Instrumentation.stop(Instrumentation.Stage.DECODE, decodeSpan);
+         return picture;
+      }
+
+      /* (non-Javadoc)
+       * Find the picture in the cache, or decode it and cache it.
+       */
+      private Bitmap preparePicture() {
+         PictureCache cache = PictureCache.getInstance(PuzzleActivity.this);
+         String key = PictureCache.keyFor(PuzzleActivity.this, uri, width, 
+               height);
+         Bitmap picture = cache.getFromMemory(key);
+         if (picture != null) {
+            return picture;
+         }
+         File file = cache.getFile(key);
+         if (file != null) {
+            picture = decoder.decodeFile(file, width, height);
+            if (picture != null) {
+               cache.putInMemory(key, picture);
+               return picture;
+            }
+         }
+         try {
+            picture = decoder.decode(uri, width, height);
+            if (picture != null) {
+               cache.put(key, picture);
+            }
+            return picture;
+         } catch (IOException e) {
+            error = e;
+         } catch (IllegalArgumentException e) {
+            error = e;
+         }
+         return null;
+      }
+
+      @Override
+      protected void onPostExecute(Bitmap picture) {
+         if (prepareTask != this) {
+            return; // the picture stays in the cache
+         }
+         prepareTask = null;
+         pendingUri = null;
+         pendingSnapshot = null;
+         dismissDialog(DIALOG_LOADING_ID);
+
+         if (error != null && snapshot != null) {
+            // The saved puzzle's picture is gone; start a new one
+            deleteFile(SNAPSHOT_FILE);
+            selectImageFromGallery();
+         } else if (error instanceof FileNotFoundException 
+               || error instanceof IllegalArgumentException) {
+            // You see, what had happened was...
+            // When using the Gallery app for selecting an image, the 
+            // Gallery will display the user's on-line Picasa web
+            // albums.  If the user attempts to select one of the
+            // pictures from their Picasa web albums, Gingerbread and 
+            // earlier versions of the OS will throw this exception.
+            // Honeycomb and later will automatically download the 
+            // picture.  This will be called for Gingerbread
+            // users and just tell them that we do not support using
+            // Picasa web album pictures for their version of Android.
+            // They will then be prompted to select another picture from
+            // the Gallery.
+            showDialog(DIALOG_PICASA_ERROR_ID);
+         } else if (error != null) {
+            error.printStackTrace();
+            finish();
+         } else if (picture != null) {
+            bitmap = picture;
+            imageUri = uri;
+            createGameBoard(SettingsActivity.getGridSize(PuzzleActivity.this),
+                  snapshot);
+         }
+      }
+   }
+
+   private DisplayMetrics getDisplayMetrics() {
+      DisplayMetrics metrics = new DisplayMetrics();
+      getWindowManager().getDefaultDisplay().getMetrics(metrics);
+      return metrics;
    }
    
 
@@ -160,24 +359,25 @@ public final class PuzzleActivity extends Activity {
     * Basic wrapper method for creating the game board and setting the number
     * visibility.
     * @param gridSize row and column count (3 = 3x3; 4 = 4x4; 5 = 5x5; etc.)
+    * @param snapshot saved puzzle to continue, or null to shuffle a new one
     */
-   private final void createGameBoard(short gridSize) {
-      DisplayMetrics metrics = new DisplayMetrics();
-      getWindowManager().getDefaultDisplay().getMetrics(metrics);
-        
-      TableLayout tableLayout;
-      tableLayout = (TableLayout) findViewById(R.id.parentLayout);    
-      tableLayout.removeAllViews();
+   private final void createGameBoard(short gridSize, BoardSnapshot snapshot) {
+      DisplayMetrics metrics = getDisplayMetrics();
+      BoardView boardView = (BoardView) findViewById(R.id.board);
       
+      long createSpan = Instrumentation.start();
       board = GameBoard.createGameBoard(this, 
             bitmap, 
-            tableLayout,
-            (int) (metrics.widthPixels * metrics.density),
-            (int) (metrics.heightPixels * metrics.density),
-            gridSize);
+            boardView,
+            metrics.widthPixels, // already in physical pixels
+            metrics.heightPixels,
+            gridSize,
+            snapshot);
+      Instrumentation.stop(Instrumentation.Stage.CREATE_BOARD, createSpan);
       board.setNumbersVisible(numbersVisible);
-//      bitmap.recycle(); // free memory for this copy of the picture since the
-                     // picture is stored by the GameBoard class
+      board.setCountingEachTile(SettingsActivity.isCountingEachTile(this));
+      // The picture must not be recycled here: it may be shared with the
+      // PictureCache, and grid size changes cut it again.
    }
 
    @Override
@@ -199,6 +399,18 @@ public final class PuzzleActivity extends Activity {
       case R.id.reshuffle:
          board.shuffleTiles();
          break;
+      case R.id.undo:
+         board.undo();
+         break;
+      case R.id.redo:
+         board.redo();
+         break;
+      case R.id.hint:
+         startSolving(false);
+         break;
+      case R.id.auto_solve:
+         startSolving(true);
+         break;
       case R.id.settings:
          Intent i = new Intent(this, SettingsActivity.class);
          startActivity(i);
@@ -214,17 +426,168 @@ public final class PuzzleActivity extends Activity {
    protected void onResume() {
       super.onResume();
       numbersVisible = SettingsActivity.isNumbersVisible(this);
+      boolean timingsVisible = SettingsActivity.isTimingsVisible(this);
+      Instrumentation.setEnabled(timingsVisible);
+      ((BoardView) findViewById(R.id.board)).setTimingsVisible(timingsVisible);
+      if (pendingUri != null && prepareTask == null) {
+         // Was interrupted by onPause
+         startPreparing(pendingUri, pendingSnapshot);
+      }
       
       if (board == null) {
          return;
       }      
       
       board.setNumbersVisible(numbersVisible);      
+      board.setCountingEachTile(SettingsActivity.isCountingEachTile(this));
       // Check if the size of the board has changed, since this puzzle was
-      // started.  If so, create a new board.
-      if (board.getGridSize() != SettingsActivity.getGridSize(this)) {
-         short gridSize = SettingsActivity.getGridSize(this);
-         createGameBoard(gridSize);
+      // started.  If so, cut the same picture into the new number of tiles.
+      short gridSize = SettingsActivity.getGridSize(this);
+      if (board.getGridSize() != gridSize) {
+         stopSolving();
+         board.setGridSize(gridSize);
+      }
+   }
+
+   @Override
+   protected void onPause() {
+      super.onPause();
+      cancelPreparing();
+      stopSolving();
+      if (Instrumentation.isEnabled()) {
+         Log.i(TAG, "Timings in ms:\n" + Instrumentation.dump());
+      }
+      if (board != null && imageUri != null) {
+         writeSnapshotFile(board.snapshot(imageUri.toString()));
+      }
+   }
+
+   /* (non-Javadoc)
+    * Search for a solution to the current board on a background thread.  A
+    * 3x3 board is looked up instead once the table has been built.
+    * @param solveAll true to play every move, false to make just the next one
+    */
+   private void startSolving(boolean solveAll) {
+      if (board == null) {
+         return;
+      }
+      stopSolving();
+      if (board.getGridSize() == PerfectTable.GRID_SIZE 
+            && PerfectTable.isBuilt()) {
+         playSolution(PerfectTable.getInstance().solve(board.copyState()),
+               solveAll, board.getVersion());
+         return;
+      }
+      solveTask = new SolveTask(solveAll, board.getVersion());
+      solveTask.execute(board.copyState());
+   }
+
+   /* (non-Javadoc)
+    * Cancel any running search and any auto-solve in progress.
+    */
+   private void stopSolving() {
+      if (solveTask != null) {
+         solveTask.cancelSearch();
+         solveTask = null;
+      }
+      handler.removeCallbacks(autoSolveRunner);
+      autoSolution = null;
+   }
+
+   /* (non-Javadoc)
+    * Plays the auto-solve moves one at a time so each one is animated.  Stops
+    * if the board changed in between (e.g. the user touched a tile).
+    */
+   private final Runnable autoSolveRunner = new Runnable() {
+      public void run() {
+         if (autoSolution == null || board.getVersion() != autoSolveVersion) {
+            autoSolution = null;
+            return;
+         }
+         board.moveBlank(autoSolution[autoSolveIndex++]);
+         autoSolveVersion = board.getVersion();
+         if (autoSolveIndex < autoSolution.length) {
+            handler.postDelayed(this, AUTO_SOLVE_STEP_MS);
+         } else {
+            autoSolution = null;
+         }
+      }
+   };
+
+   /* (non-Javadoc)
+    * Runs the solver off the UI thread with a time budget.  The result is
+    * ignored if the board has changed since the search started.
+    */
+   private final class SolveTask extends AsyncTask<BoardState, Void, int[]> {
+
+      private final boolean solveAll;
+      private final int version; // board version that is being solved
+      private final CancellationToken token = 
+            new CancellationToken(SOLVER_BUDGET_MS);
+
+      SolveTask(boolean solveAll, int version) {
+         this.solveAll = solveAll;
+         this.version = version;
+      }
+
+      void cancelSearch() {
+         token.cancel();
+         cancel(false);
+      }
+
+      @Override
+      protected int[] doInBackground(BoardState... states) {
+         BoardState state = states[0];
+         int gridSize = state.getGridSize();
+         int[] solution = null;
+         if (gridSize == PerfectTable.GRID_SIZE) {
+            // Builds the table the first time, then every board is a lookup
+            return PerfectTable.getInstance().solve(state);
+         }
+         // Try for the shortest solution on small boards, but fall back to
+         // the fast solver rather than keep the player waiting.
+         if (gridSize <= MAX_OPTIMAL_GRID_SIZE) {
+            solution = new Solver(gridSize, null)
+                  .solve(state, new CancellationToken(OPTIMAL_BUDGET_MS, 
+                        token));
+         }
+         if (solution == null && !token.isCancelled()) {
+            solution = new ReductionSolver(gridSize).solve(state, token);
+         }
+         return solution;
+      }
+
+      @Override
+      protected void onPostExecute(int[] solution) {
+         if (solveTask == this) {
+            solveTask = null;
+         }
+         if (board == null || board.getVersion() != version) {
+            return;
+         }
+         playSolution(solution, solveAll, version);
+      }
+   }
+
+   /* (non-Javadoc)
+    * Make the first move of a solution, or start playing all of it.
+    * @param solution the blank's moves, or null if the search gave up
+    * @param solveAll true to play every move
+    * @param version board version the solution is for
+    */
+   private void playSolution(int[] solution, boolean solveAll, int version) {
+      if (solution == null) {
+         Toast.makeText(this, R.string.solver_timeout, 
+               Toast.LENGTH_SHORT).show();
+      } else if (solution.length > 0) {
+         if (solveAll) {
+            autoSolution = solution;
+            autoSolveIndex = 0;
+            autoSolveVersion = version;
+            handler.post(autoSolveRunner);
+         } else {
+            board.moveBlank(solution[0]);
+         }
       }
    }
 
@@ -245,6 +608,23 @@ public final class PuzzleActivity extends Activity {
          });
          dialog = builder.create();
          break;
+      case DIALOG_LOADING_ID:
+         ProgressDialog progress = new ProgressDialog(this);
+         progress.setMessage(getString(R.string.loading_picture));
+         progress.setIndeterminate(true);
+         progress.setCancelable(true);
+         progress.setOnCancelListener(new DialogInterface.OnCancelListener() {
+            public void onCancel(DialogInterface dialog) {
+               cancelPreparing();
+               pendingUri = null;
+               pendingSnapshot = null;
+               if (board == null) {
+                  finish(); // nothing to play
+               }
+            }
+         });
+         dialog = progress;
+         break;
       case DIALOG_COMPLETED_ID:
          builder.setMessage(createCompletionMessage())
          .setCancelable(false)
@@ -21,6 +21,7 @@ import android.content.Context;
 import android.os.Bundle;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
+import net.chatam.android.photogaffe.engine.Scrambler.Difficulty;
 
 /**
  * The Activity that controls the persistent configuration items for the 
@@ -58,4 +59,45 @@ public class SettingsActivity extends PreferenceActivity {
             .getString("grid_size", "3");   
       return Short.parseShort(gridSize);
    }
+
+   /**
+    * Determine how far from solved new puzzles are, based on the
+    * application's settings in persistent storage.
+    * @param context
+    * @return the difficulty of new puzzles; RANDOM if none was chosen
+    */
+   public static Difficulty getDifficulty(Context context) {
+      String difficulty = PreferenceManager
+            .getDefaultSharedPreferences(context)
+            .getString("difficulty", Difficulty.RANDOM.name());
+      try {
+         return Difficulty.valueOf(difficulty);
+      } catch (IllegalArgumentException e) {
+         return Difficulty.RANDOM; // saved by a different version
+      }
+   }
+
+   /**
+    * Determine how a slide of several tiles is scored, based on the
+    * application's settings in persistent storage.
+    * @param context
+    * @return true if every tile counts as a move, false if a slide counts
+    * as one move
+    */
+   public static boolean isCountingEachTile(Context context) {
+      return "tile".equals(PreferenceManager
+            .getDefaultSharedPreferences(context)
+            .getString("move_count", "tile"));
+   }
+
+   /**
+    * Determine whether frame and touch timings are recorded and displayed,
+    * based on the application's settings in persistent storage.
+    * @param context
+    * @return true if the timings are visible, false otherwise
+    */
+   public static boolean isTimingsVisible(Context context) {
+      return PreferenceManager.getDefaultSharedPreferences(context)
+            .getBoolean("show_timings", false);
+   }
 }
@@ -17,25 +17,76 @@ Copyright (C) 2011  Wade Chatam
 
 package net.chatam.android.photogaffe;
 
+import net.chatam.android.photogaffe.engine.BoardState;
+
 /**
  * A position on the game board.  Contains a row and column number that used
  * 0-based indexes, ie. the location in the upper-left corner of the game board
  * is 0,0.
+ * Every location is created once, when the class loads, and shared: 
+ * getInstance and forPosition only look them up, so they never allocate.
+ * The same table maps a board position (row * gridSize + column) to its
+ * location without dividing.
  * @author wadechatam
  *
  */
 public final class TileLocation {
    
-   private short row;
-   private short column;
+   private static final int MAX_SIZE = BoardState.MAX_GRID_SIZE;
+   private static final TileLocation[] LOCATIONS = // by row * MAX_SIZE + column
+         new TileLocation[MAX_SIZE * MAX_SIZE];
+   private static final TileLocation[][] BY_POSITION = // by grid size
+         new TileLocation[MAX_SIZE + 1][];
+
+   static {
+      for (short row = 0; row < MAX_SIZE; row++) {
+         for (short column = 0; column < MAX_SIZE; column++) {
+            LOCATIONS[row * MAX_SIZE + column] = 
+                  new TileLocation(row, column);
+         }
+      }
+      for (int gridSize = 1; gridSize <= MAX_SIZE; gridSize++) {
+         TileLocation[] positions = new TileLocation[gridSize * gridSize];
+         for (int row = 0; row < gridSize; row++) {
+            for (int column = 0; column < gridSize; column++) {
+               positions[row * gridSize + column] = 
+                     LOCATIONS[row * MAX_SIZE + column];
+            }
+         }
+         BY_POSITION[gridSize] = positions;
+      }
+   }
+
+   private final short row;
+   private final short column;
+   private final String label; // what toString returns, e.g. "1-2"
    
    private TileLocation(short row, short column) {
       this.row = row;
       this.column = column;
+      this.label = (row + 1) + "-" + (column + 1);
    }
    
+   /**
+    * @param row 0-based row
+    * @param column 0-based column
+    * @return the shared location
+    */
    public static TileLocation getInstance(short row, short column) {
-	   return new TileLocation(row, column);
+      if (row < 0 || row >= MAX_SIZE || column < 0 || column >= MAX_SIZE) {
+         throw new IllegalArgumentException("No location " + row + "," 
+               + column);
+      }
+      return LOCATIONS[row * MAX_SIZE + column];
+   }
+
+   /**
+    * @param position board position, row * gridSize + column
+    * @param gridSize row and column count
+    * @return the shared location of the position
+    */
+   public static TileLocation forPosition(int position, int gridSize) {
+      return BY_POSITION[gridSize][position];
    }
    
    public short getRow() {
@@ -44,16 +95,34 @@ public final class TileLocation {
    public short getColumn() {
       return column;
    }
-   
+
+   /**
+    * @param gridSize row and column count
+    * @return the board position of this location, row * gridSize + column
+    */
+   public int getPosition(int gridSize) {
+      return row * gridSize + column;
+   }
    
    /**
-    * Do these tiles have the same row and column numbers?
+    * Do these tiles have the same row and column numbers?  Locations are
+    * shared, so this is the same as comparing references.
     * @param other
     * @return true if the row and column numbers are equal
     */
-   public boolean equals(TileLocation other) {
-      return (other.getColumn() == this.getColumn()) && 
-            (other.getRow() == this.getRow());
+   @Override
+   public boolean equals(Object other) {
+      if (!(other instanceof TileLocation)) {
+         return false;
+      }
+      TileLocation location = (TileLocation) other;
+      return (location.getColumn() == this.getColumn()) && 
+            (location.getRow() == this.getRow());
+   }
+
+   @Override
+   public int hashCode() {
+      return row * MAX_SIZE + column;
    }
    
    /**
@@ -72,9 +141,11 @@ public final class TileLocation {
    }   
    
    /**
-    * @return the current Yen-to-chicken exchange ratio.
+    * @return the current Yen-to-chicken exchange ratio.  (The 1-based
+    * "row-column" label, built once.)
     */
+   @Override
    public String toString(){
-      return new String((row + 1) + "-" + (column + 1));
+      return label;
    }
 }
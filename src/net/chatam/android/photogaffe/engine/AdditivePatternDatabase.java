@@ -0,0 +1,227 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.engine;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * A set of pattern databases for disjoint groups of tiles.  Because each
+ * table only counts moves of its own tiles, the tables can be added together
+ * and still never overestimate, which makes a much better estimate than the
+ * Manhattan distance for the solver.
+ * File layout (big-endian):
+ * <pre>
+ *   int   magic 'PGPD'
+ *   short version
+ *   byte  grid size
+ *   byte  number of groups
+ *   per group: byte tile count, then that many tile ids
+ *   per group: (entries + 1) / 2 bytes of nibble data
+ * </pre>
+ * Files are memory-mapped when loaded, so nothing is decoded up front and
+ * lookups read straight from the mapping.
+ */
+public final class AdditivePatternDatabase {
+
+   public static final int MAGIC = 0x50475044; // "PGPD"
+   public static final int VERSION = 1;
+
+   /** The 6-6-3 split for 4x4 boards, as tile ids. */
+   public static final int[][] PARTITION_4X4 = {
+      { 0, 4, 5, 8, 9, 12 },
+      { 6, 7, 10, 11, 13, 14 },
+      { 1, 2, 3 },
+   };
+
+   /** A 5-5-5-5-4 split for 5x5 boards, as tile ids. */
+   public static final int[][] PARTITION_5X5 = {
+      { 0, 1, 5, 6, 10 },
+      { 2, 3, 4, 7, 8 },
+      { 9, 13, 14, 18, 19 },
+      { 11, 12, 15, 16, 17 },
+      { 20, 21, 22, 23 },
+   };
+
+   private final int gridSize;
+   private final PatternDatabase[] patterns;
+   private final byte[] patternOf; // group of each tile id, -1 if none
+
+   /**
+    * @param gridSize row and column count of the boards this estimates
+    * @param patterns tables for disjoint groups of tiles
+    */
+   public AdditivePatternDatabase(int gridSize, PatternDatabase[] patterns) {
+      int cellCount = gridSize * gridSize;
+      this.gridSize = gridSize;
+      this.patterns = patterns.clone();
+      this.patternOf = new byte[cellCount];
+      Arrays.fill(patternOf, (byte) -1);
+      for (int p = 0; p < patterns.length; p++) {
+         if (patterns[p].getCellCount() != cellCount) {
+            throw new IllegalArgumentException("Group " + p
+                  + " is for a different board size");
+         }
+         int[] tiles = patterns[p].getTiles();
+         for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] >= cellCount - 1 || patternOf[tiles[i]] >= 0) {
+               throw new IllegalArgumentException("Tile " + tiles[i]
+                     + " is the blank or in more than one group");
+            }
+            patternOf[tiles[i]] = (byte) p;
+         }
+      }
+   }
+
+   /**
+    * The groups this project ships tables for.
+    * @return the partition for the grid size, or null if there is none
+    */
+   public static int[][] defaultPartition(int gridSize) {
+      switch (gridSize) {
+      case 4:
+         return PARTITION_4X4;
+      case 5:
+         return PARTITION_5X5;
+      default:
+         return null;
+      }
+   }
+
+   /**
+    * Memory-map a database file.
+    * @param file a file written by write()
+    * @return the database
+    * @throws IOException if the file cannot be read or is not a database
+    */
+   public static AdditivePatternDatabase load(File file) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+         FileChannel channel = raf.getChannel();
+         return read(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+               channel.size()));
+      } finally {
+         raf.close(); // the mapping stays valid after closing
+      }
+   }
+
+   /**
+    * Read a database from a buffer.  The group tables are views of the
+    * buffer, not copies.
+    * @param buffer the file contents, positioned at the start
+    * @return the database
+    * @throws IOException if the contents are not a database
+    */
+   public static AdditivePatternDatabase read(ByteBuffer buffer)
+         throws IOException {
+      if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION) {
+         throw new IOException("Not a pattern database");
+      }
+      int gridSize = buffer.get();
+      int cellCount = gridSize * gridSize;
+      int[][] groups = new int[buffer.get()][];
+      for (int p = 0; p < groups.length; p++) {
+         groups[p] = new int[buffer.get()];
+         for (int i = 0; i < groups[p].length; i++) {
+            groups[p][i] = buffer.get();
+         }
+      }
+      PatternDatabase[] patterns = new PatternDatabase[groups.length];
+      for (int p = 0; p < groups.length; p++) {
+         int bytes = (int) ((PatternDatabase.entryCount(cellCount,
+               groups[p].length) + 1) / 2);
+         if (buffer.remaining() < bytes) {
+            throw new IOException("Pattern database is truncated");
+         }
+         ByteBuffer slice = buffer.slice();
+         slice.limit(bytes);
+         patterns[p] = new PatternDatabase(cellCount, groups[p], slice);
+         buffer.position(buffer.position() + bytes);
+      }
+      return new AdditivePatternDatabase(gridSize, patterns);
+   }
+
+   /**
+    * Write the database in the format read() accepts.
+    */
+   public void write(OutputStream stream) throws IOException {
+      DataOutputStream out = new DataOutputStream(stream);
+      out.writeInt(MAGIC);
+      out.writeShort(VERSION);
+      out.writeByte(gridSize);
+      out.writeByte(patterns.length);
+      for (PatternDatabase pattern : patterns) {
+         int[] tiles = pattern.getTiles();
+         out.writeByte(tiles.length);
+         for (int tile : tiles) {
+            out.writeByte(tile);
+         }
+      }
+      out.flush();
+      WritableByteChannel channel = Channels.newChannel(stream);
+      for (PatternDatabase pattern : patterns) {
+         ByteBuffer data = pattern.getData();
+         data.limit(data.position() + (pattern.getEntryCount() + 1) / 2);
+         while (data.hasRemaining()) {
+            channel.write(data);
+         }
+      }
+   }
+
+   /**
+    * A lower bound on the moves needed to solve the board.
+    */
+   public int estimate(BoardState state) {
+      int extra = 0;
+      for (int p = 0; p < patterns.length; p++) {
+         extra += patterns[p].lookup(state);
+      }
+      return state.getManhattanDistance() + 2 * extra;
+   }
+
+   /**
+    * The stored value of one group for the board.  The estimate is the
+    * Manhattan distance plus twice the sum of these.
+    */
+   public int extra(int pattern, BoardState state) {
+      return patterns[pattern].lookup(state);
+   }
+
+   /**
+    * @return the group holding the tile, or -1 if it is in none
+    */
+   public int patternOf(int tile) {
+      return patternOf[tile];
+   }
+
+   public int getPatternCount() {
+      return patterns.length;
+   }
+
+   public int getGridSize() {
+      return gridSize;
+   }
+}
@@ -0,0 +1,397 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.engine;
+
+import java.util.Random;
+
+/**
+ * The arrangement of the puzzle pieces, without any pictures or views.  It is
+ * a plain Java class so it can be used (and benchmarked) on a JVM without
+ * Android.
+ * Each board position holds a tile id.  A tile's id is the index of the
+ * position it belongs in, counting left to right and top to bottom, so the
+ * puzzle is solved when every position holds its own index.  The blank is
+ * always the last id (cellCount - 1).
+ * The number of misplaced tiles and the total taxicab distance are updated on
+ * every move, so checking for a solved board does not need to scan the tiles.
+ * So is a 64-bit Zobrist hash of the arrangement: the XOR of a random key
+ * for each tile and position, blank excluded.  A move changes one tile's
+ * position, so it costs two XORs.  Keys come from a fixed seed and are
+ * shared by every board of a grid size, so equal arrangements hash the
+ * same in any board, thread or run.
+ */
+public final class BoardState {
+
+   /** Directions are the way the blank moves.  Opposites differ in bit 0. */
+   public static final int UP = 0;
+   public static final int DOWN = 1;
+   public static final int LEFT = 2;
+   public static final int RIGHT = 3;
+   public static final int DIRECTION_COUNT = 4;
+
+   /** Largest supported row and column count (ids must fit in a byte). */
+   public static final int MAX_GRID_SIZE = 16;
+
+   private static final long ZOBRIST_SEED = 0x50686f746f476166L;
+   private static final long[][] zobristKeys = new long[MAX_GRID_SIZE + 1][];
+
+   private final int gridSize; // rows and columns: 3 = 3x3; 4 = 4x4; etc.
+   private final int cellCount; // gridSize * gridSize
+   private final int blankTile; // id of the blank tile
+   private final byte[] tiles; // tile id at each position
+   private final byte[] positions; // position of each tile id
+   private final byte[] rows; // row of each position
+   private final byte[] columns; // column of each position
+   private final int[] neighbors; // [position * 4 + direction], -1 if none
+   private final byte[] distances; // [tile * cellCount + position] taxicab
+   private int blankIndex; // position of the blank tile
+   private int misplacedCount; // non-blank tiles out of place
+   private int manhattanDistance; // sum of taxicab distances, blank excluded
+   private final long[] keys; // [tile * cellCount + position] Zobrist keys
+   private long hash; // XOR of the keys of every tile but the blank
+
+   /**
+    * Creates a solved board.
+    * @param gridSize The row and column count. (3 = 3x3, 4 = 4x4, etc.)
+    */
+   public BoardState(int gridSize) {
+      if (gridSize < 2 || gridSize > MAX_GRID_SIZE) {
+         throw new IllegalArgumentException("Unsupported grid size: "
+               + gridSize);
+      }
+      this.gridSize = gridSize;
+      this.cellCount = gridSize * gridSize;
+      this.blankTile = cellCount - 1;
+      this.tiles = new byte[cellCount];
+      this.positions = new byte[cellCount];
+      this.rows = new byte[cellCount];
+      this.columns = new byte[cellCount];
+      this.neighbors = new int[cellCount * DIRECTION_COUNT];
+      this.distances = new byte[cellCount * cellCount];
+      this.keys = zobristKeys(gridSize);
+
+      for (int position = 0; position < cellCount; position++) {
+         int row = position / gridSize;
+         int column = position % gridSize;
+         rows[position] = (byte) row;
+         columns[position] = (byte) column;
+         int base = position * DIRECTION_COUNT;
+         neighbors[base + UP] = row > 0 ? position - gridSize : -1;
+         neighbors[base + DOWN] = row < gridSize - 1 ? position + gridSize : -1;
+         neighbors[base + LEFT] = column > 0 ? position - 1 : -1;
+         neighbors[base + RIGHT] = column < gridSize - 1 ? position + 1 : -1;
+      }
+      for (int tile = 0; tile < cellCount; tile++) {
+         for (int position = 0; position < cellCount; position++) {
+            distances[tile * cellCount + position] = (byte) (
+                  Math.abs(rows[tile] - rows[position])
+                  + Math.abs(columns[tile] - columns[position]));
+         }
+      }
+      reset();
+   }
+
+   /**
+    * Put every tile back in its correct position.
+    */
+   public void reset() {
+      for (int position = 0; position < cellCount; position++) {
+         tiles[position] = (byte) position;
+         positions[position] = (byte) position;
+      }
+      blankIndex = blankTile;
+      misplacedCount = 0;
+      manhattanDistance = 0;
+      hash = 0;
+      for (int tile = 0; tile < blankTile; tile++) {
+         hash ^= keys[tile * cellCount + tile];
+      }
+   }
+
+   /* (non-Javadoc)
+    * The keys for a grid size, made the first time they are needed from a
+    * SplitMix64 sequence so they are the same on every device.
+    */
+   private static synchronized long[] zobristKeys(int gridSize) {
+      if (zobristKeys[gridSize] == null) {
+         long[] keys = new long[gridSize * gridSize * gridSize * gridSize];
+         long seed = ZOBRIST_SEED + gridSize;
+         for (int i = 0; i < keys.length; i++) {
+            long z = (seed += 0x9E3779B97F4A7C15L);
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            keys[i] = z ^ (z >>> 31);
+         }
+         zobristKeys[gridSize] = keys;
+      }
+      return zobristKeys[gridSize];
+   }
+
+   /**
+    * Replace the arrangement with the given tile ids.  The counters are
+    * recomputed from scratch.
+    * @param arrangement tile id at each position (length gridSize^2)
+    * @throws IllegalArgumentException if it is not a permutation of the ids
+    */
+   public void setTiles(byte[] arrangement) {
+      if (arrangement.length != cellCount) {
+         throw new IllegalArgumentException("Expected " + cellCount
+               + " tiles, got " + arrangement.length);
+      }
+      boolean[] seen = new boolean[cellCount];
+      for (int position = 0; position < cellCount; position++) {
+         int tile = arrangement[position] & 0xFF;
+         if (tile >= cellCount || seen[tile]) {
+            throw new IllegalArgumentException("Not a permutation at "
+                  + position);
+         }
+         seen[tile] = true;
+      }
+      System.arraycopy(arrangement, 0, tiles, 0, cellCount);
+      recount();
+   }
+
+   /* (non-Javadoc)
+    * Recompute the blank position and the incremental counters.
+    */
+   private void recount() {
+      misplacedCount = 0;
+      manhattanDistance = 0;
+      hash = 0;
+      for (int position = 0; position < cellCount; position++) {
+         int tile = tiles[position] & 0xFF;
+         positions[tile] = (byte) position;
+         if (tile == blankTile) {
+            blankIndex = position;
+         } else {
+            if (tile != position) {
+               misplacedCount++;
+            }
+            manhattanDistance += distances[tile * cellCount + position];
+            hash ^= keys[tile * cellCount + position];
+         }
+      }
+   }
+
+   /**
+    * Slide the blank one position in the given direction, moving the tile
+    * that was there into the blank's old spot.
+    * @param direction UP, DOWN, LEFT or RIGHT
+    * @return true if the move was made, false if the blank is on that edge
+    */
+   public boolean move(int direction) {
+      int target = neighbors[blankIndex * DIRECTION_COUNT + direction];
+      if (target < 0) {
+         return false;
+      }
+      int tile = tiles[target] & 0xFF;
+      int row = tile * cellCount;
+      manhattanDistance += distances[row + blankIndex] - distances[row + target];
+      hash ^= keys[row + target] ^ keys[row + blankIndex];
+      if (tile == target) {
+         misplacedCount++;
+      } else if (tile == blankIndex) {
+         misplacedCount--;
+      }
+      tiles[blankIndex] = (byte) tile;
+      tiles[target] = (byte) blankTile;
+      positions[tile] = (byte) blankIndex;
+      positions[blankTile] = (byte) target;
+      blankIndex = target;
+      return true;
+   }
+
+   /**
+    * Move the blank into the given position if it is next to the blank.
+    * @param position the board position that was touched
+    * @return the direction the blank moved, or -1 if nothing moved
+    */
+   public int moveBlankTo(int position) {
+      int direction = directionTo(position);
+      if (direction >= 0) {
+         move(direction);
+      }
+      return direction;
+   }
+
+   /**
+    * Slide every tile between the blank and the given position one step
+    * toward the blank, as if pushing the whole segment.  The position must
+    * be in the blank's row or column.
+    * @param position the board position that was touched
+    * @return the number of tiles that moved; 0 if nothing moved
+    */
+   public int slideBlankTo(int position) {
+      int direction = lineDirectionTo(position);
+      if (direction < 0) {
+         return 0;
+      }
+      int count = 0;
+      while (blankIndex != position) {
+         move(direction);
+         count++;
+      }
+      return count;
+   }
+
+   /**
+    * Which way would the blank have to slide to reach a position in its row
+    * or column?
+    * @param position a board position
+    * @return the direction, or -1 if the position is the blank or is not in
+    *         its row or column
+    */
+   public int lineDirectionTo(int position) {
+      if (position < 0 || position >= cellCount || position == blankIndex) {
+         return -1;
+      }
+      if (rows[position] == rows[blankIndex]) {
+         return columns[position] < columns[blankIndex] ? LEFT : RIGHT;
+      }
+      if (columns[position] == columns[blankIndex]) {
+         return rows[position] < rows[blankIndex] ? UP : DOWN;
+      }
+      return -1;
+   }
+
+   /**
+    * Which way would the blank have to move to reach the given position?
+    * @param position a board position
+    * @return the direction, or -1 if the position is not adjacent to the blank
+    */
+   public int directionTo(int position) {
+      int base = blankIndex * DIRECTION_COUNT;
+      for (int direction = 0; direction < DIRECTION_COUNT; direction++) {
+         if (neighbors[base + direction] == position) {
+            return direction;
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * Re-arrange the tiles into a uniformly random solvable puzzle with the
+    * blank in the bottom-right corner.  Runs in a single pass; see
+    * {@link Permutations#shuffleSolvable}.
+    * @param random source of randomness
+    */
+   public void shuffle(Random random) {
+      Permutations.shuffleSolvable(tiles, gridSize, random);
+      recount();
+   }
+
+   /**
+    * Determines if the current arrangement can be solved.
+    * @return true if the puzzle can be solved
+    */
+   public boolean isSolvable() {
+      return Permutations.isSolvable(tiles, gridSize);
+   }
+
+   /**
+    * @return true if every tile is in its correct position
+    */
+   public boolean isSolved() {
+      return misplacedCount == 0;
+   }
+
+   /**
+    * @param direction UP, DOWN, LEFT or RIGHT
+    * @return the direction that undoes it
+    */
+   public static int opposite(int direction) {
+      return direction ^ 1;
+   }
+
+   /**
+    * The position reached by stepping from a position in a direction.
+    * @return the neighbouring position, or -1 if it is off the board
+    */
+   public int neighbor(int position, int direction) {
+      return neighbors[position * DIRECTION_COUNT + direction];
+   }
+
+   /**
+    * @return the id of the tile at a position (the blank is cellCount - 1)
+    */
+   public int getTileAt(int position) {
+      return tiles[position] & 0xFF;
+   }
+
+   /**
+    * @return the position currently holding the given tile id
+    */
+   public int getPositionOf(int tile) {
+      return positions[tile] & 0xFF;
+   }
+
+   /**
+    * Copy the tile ids into the given array.
+    * @param destination array of at least gridSize^2 bytes
+    */
+   public void copyTiles(byte[] destination) {
+      System.arraycopy(tiles, 0, destination, 0, cellCount);
+   }
+
+   public int getBlankIndex() {
+      return blankIndex;
+   }
+
+   public int getBlankTile() {
+      return blankTile;
+   }
+
+   public int getMisplacedCount() {
+      return misplacedCount;
+   }
+
+   /**
+    * @return the Zobrist hash of the arrangement; equal arrangements of the
+    *         same grid size always have equal hashes
+    */
+   public long getHash() {
+      return hash;
+   }
+
+   public int getManhattanDistance() {
+      return manhattanDistance;
+   }
+
+   public int getGridSize() {
+      return gridSize;
+   }
+
+   public int getCellCount() {
+      return cellCount;
+   }
+
+   public int getRow(int position) {
+      return rows[position];
+   }
+
+   public int getColumn(int position) {
+      return columns[position];
+   }
+
+   /**
+    * The taxicab distance between a tile's correct position and a position.
+    */
+   public int distance(int tile, int position) {
+      return distances[tile * cellCount + position];
+   }
+}
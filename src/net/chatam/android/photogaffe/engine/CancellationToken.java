@@ -0,0 +1,92 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.engine;
+
+/**
+ * Tells a long-running search when to stop: either because another thread
+ * called cancel() or because its time budget ran out.
+ */
+public final class CancellationToken {
+
+   private volatile boolean cancelled = false;
+   private final long deadline; // System.nanoTime() value, if limited
+   private final boolean limited;
+   private final CancellationToken parent; // also stops when this does
+
+   /**
+    * A token that only stops when cancelled.
+    */
+   public CancellationToken() {
+      this.deadline = 0;
+      this.limited = false;
+      this.parent = null;
+   }
+
+   /**
+    * A token with no budget of its own that also stops when another token
+    * does, e.g. for work that one of several threads may finish early.
+    * @param parent the enclosing token
+    */
+   public CancellationToken(CancellationToken parent) {
+      this.deadline = 0;
+      this.limited = false;
+      this.parent = parent;
+   }
+
+   /**
+    * A token that also stops once the budget has passed.
+    * @param budgetMillis time allowed from now, in milliseconds
+    */
+   public CancellationToken(long budgetMillis) {
+      this(budgetMillis, null);
+   }
+
+   /**
+    * A token with its own budget that also stops when another token does,
+    * e.g. for one step of a search that has an overall budget.
+    * @param budgetMillis time allowed from now, in milliseconds
+    * @param parent the enclosing token, or null
+    */
+   public CancellationToken(long budgetMillis, CancellationToken parent) {
+      this.deadline = System.nanoTime() + budgetMillis * 1000000L;
+      this.limited = true;
+      this.parent = parent;
+   }
+
+   /**
+    * Ask the work using this token to stop.  Safe to call from any thread.
+    */
+   public void cancel() {
+      cancelled = true;
+   }
+
+   /**
+    * @return true if cancel() was called or the budget has run out
+    */
+   public boolean isCancelled() {
+      return cancelled || (limited && System.nanoTime() - deadline > 0)
+            || (parent != null && parent.isCancelled());
+   }
+
+   /**
+    * @return nanoseconds left before the deadline (Long.MAX_VALUE if none)
+    */
+   public long remainingNanos() {
+      return limited ? deadline - System.nanoTime() : Long.MAX_VALUE;
+   }
+}
@@ -0,0 +1,152 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.engine;
+
+/**
+ * Timings of the puzzle screen's stages, from System.nanoTime(), kept in a
+ * LatencyHistogram per stage.  Off by default; when off, a span costs one
+ * volatile read and records nothing.
+ * <pre>
+ *   long start = Instrumentation.start();
+ *   ... the stage ...
+ *   Instrumentation.stop(Instrumentation.Stage.MOVE, start);
+ * </pre>
+ */
+public final class Instrumentation {
+
+   /**
+    * The stages that are timed.
+    */
+   public enum Stage {
+      /** From the touch reaching the screen to the app seeing the gesture */
+      INPUT_DELAY("input delay"),
+      /** Moving tiles in the board state after a touch */
+      MOVE("move"),
+      /** From the app seeing a gesture to the frame that shows the move */
+      TOUCH_TO_FRAME("touch to frame"),
+      /** From the start of a slide to its last frame */
+      SLIDE("slide"),
+      /** Drawing one frame of the board */
+      FRAME("frame"),
+      /** Decoding or reading back a picture */
+      DECODE("decode"),
+      /** Scaling the picture to the board */
+      SCALE("scale"),
+      /** Creating a game board, including scaling and shuffling */
+      CREATE_BOARD("create board"),
+      /** Shuffling the tiles */
+      SHUFFLE("shuffle");
+
+      private final String label;
+
+      private Stage(String label) {
+         this.label = label;
+      }
+
+      public String getLabel() {
+         return label;
+      }
+   }
+
+   private static final LatencyHistogram[] histograms =
+         new LatencyHistogram[Stage.values().length];
+   private static volatile boolean enabled = false;
+
+   static {
+      for (int i = 0; i < histograms.length; i++) {
+         histograms[i] = new LatencyHistogram();
+      }
+   }
+
+   private Instrumentation() {
+   }
+
+   /**
+    * @param on true to record timings
+    */
+   public static void setEnabled(boolean on) {
+      enabled = on;
+   }
+
+   public static boolean isEnabled() {
+      return enabled;
+   }
+
+   /**
+    * @return the start of a span to pass to stop(), or 0 if timings are off
+    */
+   public static long start() {
+      return enabled ? System.nanoTime() : 0;
+   }
+
+   /**
+    * End a span.  Nothing is recorded if it was started while timings were
+    * off.
+    * @param stage what was timed
+    * @param start from start()
+    */
+   public static void stop(Stage stage, long start) {
+      if (start != 0) {
+         histograms[stage.ordinal()].record(System.nanoTime() - start);
+      }
+   }
+
+   /**
+    * Record a duration measured some other way, such as from event times.
+    * @param stage what was timed
+    * @param nanos the duration in nanoseconds
+    */
+   public static void record(Stage stage, long nanos) {
+      if (enabled) {
+         histograms[stage.ordinal()].record(nanos);
+      }
+   }
+
+   /**
+    * @param stage what was timed
+    * @return the stage's timings so far
+    */
+   public static LatencyHistogram get(Stage stage) {
+      return histograms[stage.ordinal()];
+   }
+
+   /**
+    * @return one line per stage that has timings, e.g.
+    *         "move: n=12 p50=0.1 p90=0.2 p99=0.4 max=0.4", in milliseconds
+    */
+   public static String dump() {
+      StringBuilder dump = new StringBuilder();
+      for (Stage stage : Stage.values()) {
+         LatencyHistogram histogram = histograms[stage.ordinal()];
+         if (histogram.getCount() > 0) {
+            dump.append(stage.getLabel()).append(": ").append(histogram)
+                  .append('\n');
+         }
+      }
+      return dump.toString();
+   }
+
+   /**
+    * Forget every timing.
+    */
+   public static void reset() {
+      for (LatencyHistogram histogram : histograms) {
+         histogram.reset();
+      }
+   }
+}
@@ -0,0 +1,141 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.engine;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Counts durations in a fixed number of buckets, HDR histogram style: each
+ * power of two of microseconds is split into 16 equal buckets, so any value
+ * up to 2^41 us is reported less than 1/16 (6.25%) too high, in a few
+ * kilobytes, and recording never allocates.
+ * Methods are synchronized since a duration may be recorded on a background
+ * thread while the UI thread reads.
+ */
+public final class LatencyHistogram {
+
+   private static final int SUB_BUCKET_BITS = 4;
+   private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+   private static final int MAX_EXPONENT = 40; // 2^40 us is 12 days
+   private static final int BUCKET_COUNT =
+         (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+   private final long[] counts = new long[BUCKET_COUNT];
+   private long totalCount;
+   private long totalMicros;
+   private long maxMicros;
+
+   /**
+    * @param nanos a duration in nanoseconds; negative values count as 0
+    */
+   public synchronized void record(long nanos) {
+      long micros = Math.max(0, nanos / 1000);
+      counts[bucketOf(micros)]++;
+      totalCount++;
+      totalMicros += micros;
+      maxMicros = Math.max(maxMicros, micros);
+   }
+
+   /**
+    * Values below 16 us get a bucket each; above that, the bucket is chosen
+    * by the highest set bit and the four bits after it.
+    */
+   static int bucketOf(long micros) {
+      if (micros < SUB_BUCKETS) {
+         return (int) micros;
+      }
+      int exponent = 63 - Long.numberOfLeadingZeros(micros);
+      if (exponent > MAX_EXPONENT) {
+         return BUCKET_COUNT - 1;
+      }
+      int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS))
+            & (SUB_BUCKETS - 1);
+      return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+   }
+
+   /**
+    * @return the largest value that falls in the bucket, in microseconds
+    */
+   static long highestInBucket(int bucket) {
+      if (bucket < SUB_BUCKETS) {
+         return bucket;
+      }
+      int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+      int sub = bucket % SUB_BUCKETS;
+      long lowest = (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+      return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+   }
+
+   /**
+    * @param fraction between 0 and 1, e.g. 0.99 for the 99th percentile
+    * @return a value in nanoseconds that at least that fraction of the
+    *         recorded values do not exceed, or 0 if nothing was recorded
+    */
+   public synchronized long percentile(double fraction) {
+      if (totalCount == 0) {
+         return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(fraction * totalCount));
+      long seen = 0;
+      for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+         seen += counts[bucket];
+         if (seen >= rank) {
+            return Math.min(highestInBucket(bucket), maxMicros) * 1000;
+         }
+      }
+      return maxMicros * 1000;
+   }
+
+   public synchronized long getCount() {
+      return totalCount;
+   }
+
+   /**
+    * @return the largest value recorded, in nanoseconds
+    */
+   public synchronized long getMax() {
+      return maxMicros * 1000;
+   }
+
+   /**
+    * @return the mean of the recorded values, in nanoseconds
+    */
+   public synchronized long getMean() {
+      return totalCount == 0 ? 0 : totalMicros * 1000 / totalCount;
+   }
+
+   public synchronized void reset() {
+      Arrays.fill(counts, 0);
+      totalCount = 0;
+      totalMicros = 0;
+      maxMicros = 0;
+   }
+
+   /**
+    * @return the count and a few percentiles in milliseconds, e.g.
+    *         "n=12 p50=3.1 p90=5.0 p99=9.8 max=10.2"
+    */
+   @Override
+   public synchronized String toString() {
+      return String.format(Locale.US,
+            "n=%d p50=%.1f p90=%.1f p99=%.1f max=%.1f", totalCount,
+            percentile(0.5) / 1e6, percentile(0.9) / 1e6,
+            percentile(0.99) / 1e6, getMax() / 1e6);
+   }
+}
@@ -0,0 +1,119 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.engine;
+
+/**
+ * The linear conflict addition to the taxicab distance.  Two tiles are in
+ * conflict when both are in their goal row (or column) but in the wrong order,
+ * so one of them has to leave the line and come back: two extra moves that the
+ * taxicab distance does not count.  The fewest tiles that must leave so no
+ * conflicts remain are those outside a longest increasing subsequence of
+ * goal positions, so counting two moves for each of them still never
+ * overestimates the number of moves left.  (Taking out the tile with the
+ * most conflicts until none are left can take out too many once a line
+ * has five tiles.)
+ * An instance keeps scratch arrays so evaluating a line does not allocate;
+ * use one instance per thread.
+ */
+public final class LinearConflict {
+
+   private final int gridSize;
+   private final int[] keys; // goal column (or row) of each tile in the line
+   private final int[] tails; // scratch for the longest increasing run
+
+   public LinearConflict(int gridSize) {
+      this.gridSize = gridSize;
+      this.keys = new int[gridSize];
+      this.tails = new int[gridSize];
+   }
+
+   /**
+    * @return the linear conflict moves for every row and column
+    */
+   public int total(BoardState state) {
+      int total = 0;
+      for (int line = 0; line < gridSize; line++) {
+         total += row(state, line) + column(state, line);
+      }
+      return total;
+   }
+
+   /**
+    * @return the extra moves for tiles that belong in the given row
+    */
+   public int row(BoardState state, int row) {
+      int count = 0;
+      int blank = state.getBlankTile();
+      for (int column = 0; column < gridSize; column++) {
+         int tile = state.getTileAt(row * gridSize + column);
+         if (tile != blank && tile / gridSize == row) {
+            keys[count++] = tile % gridSize;
+         }
+      }
+      return line(keys, count);
+   }
+
+   /**
+    * @return the extra moves for tiles that belong in the given column
+    */
+   public int column(BoardState state, int column) {
+      int count = 0;
+      int blank = state.getBlankTile();
+      for (int row = 0; row < gridSize; row++) {
+         int tile = state.getTileAt(row * gridSize + column);
+         if (tile != blank && tile % gridSize == column) {
+            keys[count++] = tile / gridSize;
+         }
+      }
+      return line(keys, count);
+   }
+
+   /**
+    * The extra moves for a line whose tiles, in their current order, belong
+    * at the given goal positions.  The tiles that can stay in the line are
+    * a longest increasing run of goal positions (not necessarily adjacent);
+    * each of the others has to leave and come back, costing two moves.
+    * Found with patience sorting in O(n log n).
+    * @param goals distinct goal positions of the tiles in the line
+    * @param count number of tiles in the line
+    */
+   int line(int[] goals, int count) {
+      if (count < 2) {
+         return 0;
+      }
+      int length = 0; // of the longest increasing subsequence so far
+      for (int i = 0; i < count; i++) {
+         // tails[k] is the smallest goal ending an increasing run of k + 1
+         int low = 0;
+         int high = length;
+         while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (tails[middle] < goals[i]) {
+               low = middle + 1;
+            } else {
+               high = middle;
+            }
+         }
+         tails[low] = goals[i];
+         if (low == length) {
+            length++;
+         }
+      }
+      return 2 * (count - length);
+   }
+}
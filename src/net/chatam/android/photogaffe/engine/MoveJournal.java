@@ -0,0 +1,184 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.engine;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The moves made on a board, for undo, redo and replays.  Each move is the
+ * direction the blank moved, packed two bits to a move, 32 to a long.  The
+ * buffer doubles when full, so recording a move only allocates once every
+ * few thousand moves.
+ * Moves before the cursor have been played; moves after it were undone and
+ * can be redone until a new move is recorded.
+ */
+public final class MoveJournal {
+
+   private static final int MOVES_PER_WORD = 32;
+   private static final int INITIAL_WORDS = 32; // 1024 moves
+
+   private long[] words = new long[INITIAL_WORDS];
+   private int size; // moves recorded, including undone ones
+   private int cursor; // moves currently played
+
+   public MoveJournal() {
+   }
+
+   /**
+    * @param other journal to copy
+    */
+   public MoveJournal(MoveJournal other) {
+      this.words = other.words.clone();
+      this.size = other.size;
+      this.cursor = other.cursor;
+   }
+
+   /**
+    * Forget every move.
+    */
+   public void clear() {
+      size = 0;
+      cursor = 0;
+   }
+
+   /**
+    * Record a move that was just played.  Any undone moves are forgotten.
+    * @param direction BoardState.UP, DOWN, LEFT or RIGHT
+    */
+   public void record(int direction) {
+      if (cursor == words.length * MOVES_PER_WORD) {
+         long[] larger = new long[words.length * 2];
+         System.arraycopy(words, 0, larger, 0, words.length);
+         words = larger;
+      }
+      set(cursor++, direction);
+      size = cursor;
+   }
+
+   /**
+    * @return true if there is a played move to undo
+    */
+   public boolean canUndo() {
+      return cursor > 0;
+   }
+
+   /**
+    * @return true if there is an undone move to redo
+    */
+   public boolean canRedo() {
+      return cursor < size;
+   }
+
+   /**
+    * Step back over the last played move.  The caller moves the blank in
+    * the opposite direction.
+    * @return the direction of the move being undone
+    */
+   public int undo() {
+      if (cursor == 0) {
+         throw new IllegalStateException("Nothing to undo");
+      }
+      return get(--cursor);
+   }
+
+   /**
+    * Step forward over the next undone move.  The caller moves the blank in
+    * the returned direction.
+    * @return the direction of the move being redone
+    */
+   public int redo() {
+      if (cursor == size) {
+         throw new IllegalStateException("Nothing to redo");
+      }
+      return get(cursor++);
+   }
+
+   /**
+    * @param index 0 for the first move
+    * @return the direction of a recorded move
+    */
+   public int get(int index) {
+      if (index < 0 || index >= size) {
+         throw new IndexOutOfBoundsException("Move " + index + " of " + size);
+      }
+      return (int) (words[index / MOVES_PER_WORD]
+            >>> ((index % MOVES_PER_WORD) * 2)) & 3;
+   }
+
+   private void set(int index, int direction) {
+      int word = index / MOVES_PER_WORD;
+      int shift = (index % MOVES_PER_WORD) * 2;
+      words[word] = (words[word] & ~(3L << shift))
+            | ((long) direction << shift);
+   }
+
+   /**
+    * @return number of moves recorded, including undone ones
+    */
+   public int size() {
+      return size;
+   }
+
+   /**
+    * @return number of moves currently played
+    */
+   public int getCursor() {
+      return cursor;
+   }
+
+   /**
+    * Write the journal as the move count, the cursor and then four moves to
+    * a byte, first move in the low bits.
+    * @param out destination
+    * @throws IOException from out
+    */
+   public void write(DataOutput out) throws IOException {
+      out.writeInt(size);
+      out.writeInt(cursor);
+      for (int i = 0; i < size; i += 4) {
+         int packed = 0;
+         for (int j = 0; j < 4 && i + j < size; j++) {
+            packed |= get(i + j) << (j * 2);
+         }
+         out.writeByte(packed);
+      }
+   }
+
+   /**
+    * Replace this journal with one written by write().
+    * @param in source
+    * @throws IOException from in, or if the counts are not valid
+    */
+   public void read(DataInput in) throws IOException {
+      int count = in.readInt();
+      int position = in.readInt();
+      if (count < 0 || position < 0 || position > count) {
+         throw new IOException("Bad journal size " + count + "/" + position);
+      }
+      clear();
+      for (int i = 0; i < count; i += 4) {
+         int packed = in.readUnsignedByte();
+         for (int j = 0; j < 4 && i + j < count; j++) {
+            record((packed >>> (j * 2)) & 3);
+         }
+      }
+      cursor = position;
+   }
+}
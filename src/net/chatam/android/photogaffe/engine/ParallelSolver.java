@@ -0,0 +1,270 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Finds a shortest solution like Solver, on several threads.  The top of
+ * the IDA* tree is expanded breadth first until there are a few dozen
+ * subtrees per thread; each iteration then hands the subtrees out through
+ * an atomic counter, so a thread that finishes a small subtree just takes
+ * the next one and no thread sits idle while work remains.
+ * Each thread searches with its own Solver, moving tiles on its own board.
+ * The next threshold and the first solution are shared through atomics,
+ * without locks.  Since every subtree of an iteration uses the same bound,
+ * any solution found is a shortest one, and the others stop as soon as
+ * they check their token.
+ * With fewer executor threads than searches, fewer run at once; the
+ * result is the same.  solve does not return, even when interrupted, until
+ * every search it started has stopped.
+ * An instance is not thread safe.
+ */
+public final class ParallelSolver {
+
+   private static final int SUBTREES_PER_THREAD = 32;
+   private static final int MAX_SPLIT_DEPTH = 16;
+
+   private final int gridSize;
+   private final ExecutorService executor;
+   private final Solver[] workers;
+   private final BoardState board; // walks the prefixes while splitting
+   private final AtomicInteger cursor = new AtomicInteger(); // next subtree
+   private final AtomicInteger nextThreshold = new AtomicInteger();
+   private final AtomicReference<int[]> found = new AtomicReference<int[]>();
+   private long nodes;
+
+   /**
+    * @param gridSize row and column count of the boards to solve
+    * @param patterns pattern database for the grid size, or null
+    * @param executor runs the searches
+    * @param threads number of searches to run at once
+    */
+   public ParallelSolver(int gridSize, AdditivePatternDatabase patterns,
+         ExecutorService executor, int threads) {
+      if (threads < 1) {
+         throw new IllegalArgumentException("Need at least one thread");
+      }
+      this.gridSize = gridSize;
+      this.executor = executor;
+      this.workers = new Solver[threads];
+      for (int i = 0; i < threads; i++) {
+         workers[i] = new Solver(gridSize, patterns);
+      }
+      this.board = new BoardState(gridSize);
+   }
+
+   /**
+    * Finds a shortest solution for the given board.  The board is not
+    * changed.
+    * @param start the board to solve; must be the same size as this solver
+    * @param token stops the search when cancelled or out of time
+    * @return the directions to move the blank, or null if the search was
+    *         stopped, was interrupted or the board cannot be solved
+    */
+   public int[] solve(BoardState start, CancellationToken token) {
+      if (start.getGridSize() != gridSize) {
+         throw new IllegalArgumentException("Solver is for " + gridSize
+               + "x" + gridSize + " boards");
+      }
+      if (!start.isSolvable()) {
+         return null;
+      }
+      nodes = 0;
+      byte[] tiles = new byte[start.getCellCount()];
+      start.copyTiles(tiles);
+      List<int[]> subtrees = split(tiles);
+      if (subtrees.size() == 1 && isSolution(tiles, subtrees.get(0))) {
+         return subtrees.get(0);
+      }
+      for (Solver worker : workers) {
+         worker.load(start, token);
+      }
+
+      int threshold = workers[0].getEstimate();
+      while (!token.isCancelled()) {
+         int[] solution;
+         try {
+            solution = iterate(subtrees, threshold, token);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+         }
+         if (solution != null) {
+            return solution;
+         }
+         if (nextThreshold.get() == Integer.MAX_VALUE) {
+            return null;
+         }
+         threshold = nextThreshold.get();
+      }
+      return null;
+   }
+
+   /**
+    * @return the number of nodes expanded by the most recent solve, over
+    *         all threads
+    */
+   public long getNodeCount() {
+      return nodes;
+   }
+
+   /* (non-Javadoc)
+    * One IDA* iteration over every subtree with the same bound.
+    */
+   private int[] iterate(final List<int[]> subtrees, final int bound,
+         CancellationToken token) throws InterruptedException {
+      cursor.set(0);
+      nextThreshold.set(Integer.MAX_VALUE);
+      found.set(null);
+      final CancellationToken iteration = new CancellationToken(token);
+      List<Future<Void>> results = new ArrayList<Future<Void>>();
+      for (final Solver worker : workers) {
+         results.add(executor.submit(new Callable<Void>() {
+            public Void call() {
+               searchSubtrees(worker, subtrees, bound, iteration);
+               return null;
+            }
+         }));
+      }
+      try {
+         for (Future<Void> result : results) {
+            result.get();
+         }
+      } catch (ExecutionException e) {
+         throw new IllegalStateException(e.getCause());
+      } finally {
+         iteration.cancel(); // stops the rest if this thread was interrupted
+         awaitAll(results);
+      }
+      nodes = 0;
+      for (Solver worker : workers) {
+         nodes += worker.getNodeCount();
+      }
+      return found.get();
+   }
+
+   /* (non-Javadoc)
+    * Wait for every search to return, even if this thread is interrupted,
+    * so none is left running on the executor with a worker that the next
+    * solve will reuse.  Once the iteration is cancelled, searches that are
+    * running stop at their next token check and those not yet started
+    * return at once.  The interrupt is kept for the caller.
+    */
+   private static void awaitAll(List<Future<Void>> results) {
+      boolean interrupted = false;
+      for (Future<Void> result : results) {
+         while (true) {
+            try {
+               result.get();
+               break;
+            } catch (InterruptedException e) {
+               interrupted = true;
+            } catch (ExecutionException e) {
+               break; // reported by the first wait
+            }
+         }
+      }
+      if (interrupted) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /* (non-Javadoc)
+    * Take subtrees until there are none left or a solution is found.
+    */
+   private void searchSubtrees(Solver worker, List<int[]> subtrees,
+         int bound, CancellationToken iteration) {
+      int index;
+      while (!iteration.isCancelled()
+            && (index = cursor.getAndIncrement()) < subtrees.size()) {
+         int[] solution = worker.searchSubtree(subtrees.get(index), bound,
+               iteration);
+         if (solution != null) {
+            if (found.compareAndSet(null, solution)) {
+               iteration.cancel();
+            }
+            return;
+         }
+         int threshold = worker.getNextThreshold();
+         int current;
+         while (threshold < (current = nextThreshold.get())
+               && !nextThreshold.compareAndSet(current, threshold)) {
+            // another thread lowered it first; try again
+         }
+      }
+   }
+
+   /* (non-Javadoc)
+    * Expand the top of the tree one level at a time, never undoing the
+    * previous move, until there are enough subtrees.  If a board within
+    * those levels is solved, its moves are returned alone: levels are
+    * expanded shortest first, so it is a shortest solution.
+    */
+   private List<int[]> split(byte[] tiles) {
+      int wanted = workers.length * SUBTREES_PER_THREAD;
+      List<int[]> level = new ArrayList<int[]>();
+      level.add(new int[0]);
+      for (int depth = 0; depth < MAX_SPLIT_DEPTH && level.size() < wanted;
+            depth++) {
+         List<int[]> next = new ArrayList<int[]>();
+         for (int[] prefix : level) {
+            if (isSolution(tiles, prefix)) {
+               List<int[]> solved = new ArrayList<int[]>();
+               solved.add(prefix);
+               return solved;
+            }
+            for (int direction = 0; direction < BoardState.DIRECTION_COUNT;
+                  direction++) {
+               if (depth > 0 && direction
+                     == BoardState.opposite(prefix[depth - 1])) {
+                  continue;
+               }
+               if (board.neighbor(board.getBlankIndex(), direction) < 0) {
+                  continue;
+               }
+               int[] longer = new int[depth + 1];
+               System.arraycopy(prefix, 0, longer, 0, depth);
+               longer[depth] = direction;
+               next.add(longer);
+            }
+         }
+         level = next;
+      }
+      return level;
+   }
+
+   /* (non-Javadoc)
+    * Play the moves from the start on the splitting board, leaving it
+    * there, and say whether they solve it.
+    */
+   private boolean isSolution(byte[] tiles, int[] moves) {
+      board.setTiles(tiles);
+      for (int direction : moves) {
+         board.move(direction);
+      }
+      return board.isSolved();
+   }
+}
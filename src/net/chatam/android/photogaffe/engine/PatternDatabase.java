@@ -0,0 +1,164 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.engine;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The table for one group of tiles in an additive pattern database.  For
+ * every placement of the group's tiles it stores how many moves of those
+ * tiles it takes to bring them all home.
+ * The table is indexed by the rank of the tiles' positions, and only the
+ * part that the taxicab distance does not already cover is stored: moves
+ * beyond the group's Manhattan distance always come in pairs, so
+ * (moves - distance) / 2 is kept in a nibble.  Values too large for a nibble
+ * are stored as 15, which can only lower the estimate.
+ */
+public final class PatternDatabase {
+
+   /** Largest value a nibble can hold. */
+   public static final int MAX_EXTRA = 15;
+
+   private final int cellCount;
+   private final int[] tiles; // tile ids in this group
+   private final int[] placeValues; // rank weight of each tile's position
+   private final int entryCount;
+   private final ByteBuffer data; // two entries per byte, low nibble first
+
+   /**
+    * @param cellCount number of board positions
+    * @param tiles tile ids in the group
+    * @param data nibble-packed entries, (entryCount + 1) / 2 bytes
+    */
+   public PatternDatabase(int cellCount, int[] tiles, ByteBuffer data) {
+      long entries = entryCount(cellCount, tiles.length);
+      if (entries > Integer.MAX_VALUE) {
+         throw new IllegalArgumentException("Pattern too large");
+      }
+      if (data.remaining() < (entries + 1) / 2) {
+         throw new IllegalArgumentException("Expected " + (entries + 1) / 2
+               + " bytes of pattern data, got " + data.remaining());
+      }
+      this.cellCount = cellCount;
+      this.tiles = tiles.clone();
+      this.entryCount = (int) entries;
+      this.data = data;
+      this.placeValues = new int[tiles.length];
+      for (int i = 0; i < tiles.length; i++) {
+         placeValues[i] = (int) entryCount(cellCount - 1 - i,
+               tiles.length - 1 - i);
+      }
+   }
+
+   /**
+    * The number of ways to place k distinct tiles on n positions.
+    */
+   public static long entryCount(int n, int k) {
+      long count = 1;
+      for (int i = 0; i < k; i++) {
+         count *= n - i;
+      }
+      return count;
+   }
+
+   /**
+    * @return the table entry for the group's tiles on the given board,
+    *         without allocating
+    */
+   public int lookup(BoardState state) {
+      long used = 0;
+      int rank = 0;
+      for (int i = 0; i < tiles.length; i++) {
+         int position = state.getPositionOf(tiles[i]);
+         long below = used & ((1L << position) - 1);
+         rank += (position - Long.bitCount(below)) * placeValues[i];
+         used |= 1L << position;
+      }
+      return get(rank);
+   }
+
+   /**
+    * Index of a placement: each position is numbered among the positions
+    * not taken by earlier tiles of the group.
+    * @param positions position of each of the group's tiles, in group order
+    */
+   public int rank(int[] positions) {
+      long used = 0;
+      int rank = 0;
+      for (int i = 0; i < tiles.length; i++) {
+         int position = positions[i];
+         long below = used & ((1L << position) - 1);
+         rank += (position - Long.bitCount(below)) * placeValues[i];
+         used |= 1L << position;
+      }
+      return rank;
+   }
+
+   /**
+    * The inverse of rank().
+    * @param rank a placement index
+    * @param positions receives the position of each of the group's tiles
+    */
+   public void unrank(int rank, int[] positions) {
+      long used = 0;
+      for (int i = 0; i < tiles.length; i++) {
+         int free = rank / placeValues[i];
+         rank %= placeValues[i];
+         int position = -1;
+         do {
+            position++;
+            if ((used & (1L << position)) == 0) {
+               free--;
+            }
+         } while (free >= 0);
+         positions[i] = position;
+         used |= 1L << position;
+      }
+   }
+
+   /**
+    * @return the stored (moves - distance) / 2 value for a placement index
+    */
+   public int get(int rank) {
+      int packed = data.get(data.position() + (rank >> 1));
+      return (rank & 1) == 0 ? packed & 0x0F : (packed >> 4) & 0x0F;
+   }
+
+   public int[] getTiles() {
+      return tiles.clone();
+   }
+
+   public int getTileCount() {
+      return tiles.length;
+   }
+
+   public int getCellCount() {
+      return cellCount;
+   }
+
+   public int getEntryCount() {
+      return entryCount;
+   }
+
+   /**
+    * @return the nibble data, positioned at its start
+    */
+   public ByteBuffer getData() {
+      return data.duplicate();
+   }
+}
@@ -0,0 +1,257 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.engine;
+
+/**
+ * The exact distance to solved of every 3x3 board, found by breadth-first
+ * search from the solved board over all 181,440 solvable arrangements.
+ * A board's index is its blank position times 20,160 plus half the Lehmer
+ * rank of the other eight tiles in position order.  Of two permutations
+ * that differ only in their last two tiles, which rank next to each other,
+ * exactly one is solvable, so halving the rank loses nothing.
+ * Each entry is the distance modulo 16 in four bits, about 90 KB in all.
+ * The 3x3 puzzle needs up to 31 moves, so the exact distance is found by
+ * following neighbours whose entry is one less down to the solved board.
+ * Building takes a fraction of a second; after that the table is read only
+ * and may be shared between threads.
+ */
+public final class PerfectTable {
+
+   public static final int GRID_SIZE = 3;
+   public static final int STATE_COUNT = 181440; // 9! / 2
+
+   private static final int CELL_COUNT = GRID_SIZE * GRID_SIZE;
+   private static final int TILE_COUNT = CELL_COUNT - 1;
+   private static final int PER_BLANK = 20160; // 8! / 2
+   private static final int ENTRY_MASK = 15;
+
+   private static PerfectTable instance;
+
+   private final byte[] data = new byte[STATE_COUNT / 2]; // two per byte
+   private final BoardState board = new BoardState(GRID_SIZE); // neighbours
+   private final int solvedIndex;
+
+   private PerfectTable() {
+      solvedIndex = indexOf(solvedTiles());
+   }
+
+   /**
+    * @return the shared table, built by the first caller
+    */
+   public static synchronized PerfectTable getInstance() {
+      if (instance == null) {
+         instance = build();
+      }
+      return instance;
+   }
+
+   /**
+    * @return true if getInstance() will return without building the table
+    */
+   public static synchronized boolean isBuilt() {
+      return instance != null;
+   }
+
+   /**
+    * Breadth-first search from the solved board.  The queue holds board
+    * indexes in order of distance, so each level is a contiguous run.
+    * @return a new table
+    */
+   public static PerfectTable build() {
+      PerfectTable table = new PerfectTable();
+      long[] visited = new long[(STATE_COUNT + 63) / 64];
+      int[] queue = new int[STATE_COUNT];
+      byte[] tiles = new byte[CELL_COUNT];
+      int head = 0;
+      int tail = 0;
+      queue[tail++] = table.solvedIndex;
+      visited[table.solvedIndex >>> 6] |= 1L << table.solvedIndex;
+      while (head < tail) {
+         int index = queue[head++];
+         int next = (table.get(index) + 1) & ENTRY_MASK;
+         unrank(index, tiles);
+         int blank = index / PER_BLANK;
+         for (int direction = 0; direction < BoardState.DIRECTION_COUNT;
+               direction++) {
+            int target = table.board.neighbor(blank, direction);
+            if (target < 0) {
+               continue;
+            }
+            swap(tiles, blank, target);
+            int neighbour = indexOf(tiles);
+            swap(tiles, blank, target);
+            if ((visited[neighbour >>> 6] & (1L << neighbour)) == 0) {
+               visited[neighbour >>> 6] |= 1L << neighbour;
+               table.set(neighbour, next);
+               queue[tail++] = neighbour;
+            }
+         }
+      }
+      if (tail != STATE_COUNT) {
+         throw new IllegalStateException("Reached " + tail + " boards");
+      }
+      return table;
+   }
+
+   /**
+    * @param state a 3x3 board
+    * @return the fewest moves that solve it
+    */
+   public int distance(BoardState state) {
+      checkSize(state);
+      byte[] tiles = new byte[CELL_COUNT];
+      state.copyTiles(tiles);
+      int blank = state.getBlankIndex();
+      int steps = 0;
+      int index = indexOf(tiles);
+      while (index != solvedIndex) {
+         int direction = downhill(tiles, blank, get(index));
+         int target = board.neighbor(blank, direction);
+         swap(tiles, blank, target);
+         blank = target;
+         index = indexOf(tiles);
+         steps++;
+      }
+      return steps;
+   }
+
+   /**
+    * @param state a 3x3 board
+    * @return the direction the blank should move next on a shortest
+    *         solution, or -1 if the board is solved
+    */
+   public int nextMove(BoardState state) {
+      checkSize(state);
+      byte[] tiles = new byte[CELL_COUNT];
+      state.copyTiles(tiles);
+      int index = indexOf(tiles);
+      if (index == solvedIndex) {
+         return -1;
+      }
+      return downhill(tiles, state.getBlankIndex(), get(index));
+   }
+
+   /**
+    * @param state a 3x3 board
+    * @return the blank's moves on a shortest solution, as Solver.solve()
+    *         returns them
+    */
+   public int[] solve(BoardState state) {
+      checkSize(state);
+      int[] moves = new int[distance(state)];
+      byte[] tiles = new byte[CELL_COUNT];
+      state.copyTiles(tiles);
+      int blank = state.getBlankIndex();
+      for (int i = 0; i < moves.length; i++) {
+         moves[i] = downhill(tiles, blank, get(indexOf(tiles)));
+         int target = board.neighbor(blank, moves[i]);
+         swap(tiles, blank, target);
+         blank = target;
+      }
+      return moves;
+   }
+
+   /* (non-Javadoc)
+    * The direction to a neighbour one move closer to solved.  Neighbours
+    * are one move closer or further, never the same, so an entry one less
+    * modulo 16 is always closer.
+    */
+   private int downhill(byte[] tiles, int blank, int entry) {
+      int wanted = (entry - 1) & ENTRY_MASK;
+      for (int direction = 0; direction < BoardState.DIRECTION_COUNT;
+            direction++) {
+         int target = board.neighbor(blank, direction);
+         if (target < 0) {
+            continue;
+         }
+         swap(tiles, blank, target);
+         int neighbour = indexOf(tiles);
+         swap(tiles, blank, target);
+         if (get(neighbour) == wanted) {
+            return direction;
+         }
+      }
+      throw new IllegalStateException("No closer neighbour");
+   }
+
+   /**
+    * @param tiles tile id at each position of a solvable 3x3 board
+    * @return the board's index in the table
+    */
+   public static int indexOf(byte[] tiles) {
+      int blank = Permutations.indexOf(tiles, CELL_COUNT, TILE_COUNT);
+      return blank * PER_BLANK
+            + (int) (Permutations.rank(tiles, TILE_COUNT) >>> 1);
+   }
+
+   /**
+    * @param index a board's index in the table
+    * @param tiles destination for the tile id at each position
+    */
+   public static void unrank(int index, byte[] tiles) {
+      long rank = (long) (index % PER_BLANK) << 1;
+      placeTiles(rank, index / PER_BLANK, tiles);
+      if (Permutations.countInversions(tiles, CELL_COUNT) % 2 != 0) {
+         placeTiles(rank + 1, index / PER_BLANK, tiles);
+      }
+   }
+
+   /* (non-Javadoc)
+    * Unrank the eight tiles into the first positions, then open a gap for
+    * the blank.
+    */
+   private static void placeTiles(long rank, int blank, byte[] tiles) {
+      Permutations.unrank(rank, tiles, TILE_COUNT);
+      System.arraycopy(tiles, blank, tiles, blank + 1, TILE_COUNT - blank);
+      tiles[blank] = (byte) TILE_COUNT;
+   }
+
+   /**
+    * @param index a board's index in the table
+    * @return its distance to solved, modulo 16
+    */
+   public int get(int index) {
+      return (data[index >>> 1] >>> ((index & 1) * 4)) & ENTRY_MASK;
+   }
+
+   private void set(int index, int value) {
+      int shift = (index & 1) * 4;
+      data[index >>> 1] = (byte) ((data[index >>> 1] & ~(ENTRY_MASK << shift))
+            | (value << shift));
+   }
+
+   private static byte[] solvedTiles() {
+      byte[] tiles = new byte[CELL_COUNT];
+      for (int position = 0; position < CELL_COUNT; position++) {
+         tiles[position] = (byte) position;
+      }
+      return tiles;
+   }
+
+   private static void swap(byte[] tiles, int first, int second) {
+      byte tmp = tiles[first];
+      tiles[first] = tiles[second];
+      tiles[second] = tmp;
+   }
+
+   private static void checkSize(BoardState state) {
+      if (state.getGridSize() != GRID_SIZE) {
+         throw new IllegalArgumentException("Not a 3x3 board");
+      }
+   }
+}
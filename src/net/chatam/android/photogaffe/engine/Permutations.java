@@ -0,0 +1,197 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.engine;
+
+import java.util.Random;
+
+/**
+ * Static helpers for tile arrangements stored as arrays of tile ids, where
+ * the blank is the largest id.
+ */
+public final class Permutations {
+
+   private static final long[] FACTORIALS = new long[21]; // 20! fits a long
+
+   static {
+      FACTORIALS[0] = 1;
+      for (int n = 1; n < FACTORIALS.length; n++) {
+         FACTORIALS[n] = FACTORIALS[n - 1] * n;
+      }
+   }
+
+   private Permutations() {
+   }
+
+   /**
+    * Counts the tile pairs that are out of order, ignoring the blank.  Uses a
+    * Fenwick (binary indexed) tree, so it runs in O(n log n).
+    * @param tiles tile id at each position
+    * @param cellCount number of positions; the blank's id is cellCount - 1
+    * @return the number of inversions
+    */
+   public static long countInversions(byte[] tiles, int cellCount) {
+      int blank = cellCount - 1;
+      int[] tree = new int[cellCount + 1]; // counts of ids seen, 1-based
+      long inversions = 0;
+      int seen = 0;
+      for (int position = 0; position < cellCount; position++) {
+         int tile = tiles[position] & 0xFF;
+         if (tile == blank) {
+            continue;
+         }
+         // Tiles already seen with a larger id are out of order with this one
+         int smallerOrEqual = 0;
+         for (int i = tile + 1; i > 0; i -= i & -i) {
+            smallerOrEqual += tree[i];
+         }
+         inversions += seen - smallerOrEqual;
+         for (int i = tile + 1; i <= cellCount; i += i & -i) {
+            tree[i]++;
+         }
+         seen++;
+      }
+      return inversions;
+   }
+
+   /**
+    * Determines if an arrangement can be reached from the solved board.  For
+    * odd widths the inversion count must be even.  For even widths each
+    * vertical blank move also flips the inversion parity, so the number of
+    * rows between the blank and the bottom row is added in.
+    * http://mathworld.wolfram.com/15Puzzle.html
+    * @param tiles tile id at each position
+    * @param gridSize row and column count
+    * @return true if the arrangement is solvable
+    */
+   public static boolean isSolvable(byte[] tiles, int gridSize) {
+      int cellCount = gridSize * gridSize;
+      long parity = countInversions(tiles, cellCount);
+      if (gridSize % 2 == 0) {
+         int blankIndex = indexOf(tiles, cellCount, cellCount - 1);
+         parity += gridSize - 1 - blankIndex / gridSize;
+      }
+      return parity % 2 == 0;
+   }
+
+   /**
+    * Fill the array with a uniformly random solvable arrangement that has
+    * the blank in the bottom-right corner.  A Fisher-Yates shuffle is made
+    * solvable by swapping the first two tiles when its parity is wrong;
+    * this pairs every arrangement with exactly one solvable one, so no
+    * retries are needed.
+    * @param tiles destination, at least cellCount long
+    * @param gridSize row and column count
+    * @param random source of randomness
+    */
+   public static void shuffleSolvable(byte[] tiles, int gridSize,
+         Random random) {
+      int cellCount = gridSize * gridSize;
+      int blank = cellCount - 1;
+      for (int position = 0; position < cellCount; position++) {
+         tiles[position] = (byte) position;
+      }
+      for (int i = blank - 1; i > 0; i--) {
+         int j = random.nextInt(i + 1);
+         byte tmp = tiles[i];
+         tiles[i] = tiles[j];
+         tiles[j] = tmp;
+      }
+      if (!isSolvable(tiles, gridSize)) {
+         byte tmp = tiles[0];
+         tiles[0] = tiles[1];
+         tiles[1] = tmp;
+      }
+   }
+
+   /**
+    * The Lehmer code rank of a permutation: its index in lexicographic order
+    * among all permutations of the same values.  Each element's digit is the
+    * number of smaller values not yet used, counted with one bitCount on a
+    * mask of the used values, so the whole rank takes O(n).  Values of
+    * length or more are skipped, so a board's tiles can be ranked without
+    * the blank.
+    * @param items the values 0 to length - 1 in some order, possibly with
+    *        larger values among them
+    * @param length number of values ranked, at most 20 so the rank fits in
+    *        a long
+    * @return a rank from 0 to length! - 1
+    */
+   public static long rank(byte[] items, int length) {
+      long used = 0;
+      long rank = 0;
+      int remaining = length;
+      for (int i = 0; i < items.length && remaining > 0; i++) {
+         int value = items[i] & 0xFF;
+         if (value >= length) {
+            continue;
+         }
+         int digit = value - Long.bitCount(used & ((1L << value) - 1));
+         rank = rank * remaining-- + digit;
+         used |= 1L << value;
+      }
+      return rank;
+   }
+
+   /**
+    * The inverse of rank().  Each digit is the rank divided by a factorial,
+    * most significant first, and picks the free value of that order from a
+    * mask in six bitCount steps, so the whole permutation takes O(n) and
+    * nothing is allocated.
+    * @param rank from 0 to length! - 1
+    * @param items destination for the values 0 to length - 1
+    * @param length number of items, at most 20
+    */
+   public static void unrank(long rank, byte[] items, int length) {
+      long free = (1L << length) - 1;
+      for (int i = 0; i < length; i++) {
+         long factorial = FACTORIALS[length - 1 - i];
+         int value = select(free, (int) (rank / factorial));
+         rank %= factorial;
+         items[i] = (byte) value;
+         free &= ~(1L << value);
+      }
+   }
+
+   /* (non-Javadoc)
+    * The position of the set bit with the given number of set bits below
+    * it, by halving the window to search.
+    */
+   private static int select(long mask, int order) {
+      int position = 0;
+      for (int width = 32; width > 0; width >>>= 1) {
+         int below = Long.bitCount((mask >>> position) & ((1L << width) - 1));
+         if (order >= below) {
+            order -= below;
+            position += width;
+         }
+      }
+      return position;
+   }
+
+   /**
+    * @return the position of a tile id, or -1 if it is not present
+    */
+   public static int indexOf(byte[] tiles, int cellCount, int tile) {
+      for (int position = 0; position < cellCount; position++) {
+         if ((tiles[position] & 0xFF) == tile) {
+            return position;
+         }
+      }
+      return -1;
+   }
+}
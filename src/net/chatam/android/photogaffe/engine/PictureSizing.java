@@ -0,0 +1,165 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.engine;
+
+/**
+ * Works out how to decode a picture for a board of a given size: which part
+ * of the image to use, how much to subsample it while decoding, and how many
+ * bytes per pixel the result can afford.
+ */
+public final class PictureSizing {
+
+   /** Bytes per pixel for ARGB_8888. */
+   public static final int FULL_COLOR = 4;
+   /** Bytes per pixel for RGB_565. */
+   public static final int LOW_COLOR = 2;
+   /**
+    * How far the picture may be stretched in one direction to fill the
+    * board.  Anything wider or taller (e.g. a panorama) is cropped to this.
+    */
+   public static final float MAX_STRETCH = 1.5f;
+   private static final int MAX_SAMPLE_SIZE = 128;
+
+   private final int left; // region of the image to decode, in image pixels
+   private final int top;
+   private final int right;
+   private final int bottom;
+   private final int sampleSize; // power of two passed as inSampleSize
+   private final int bytesPerPixel; // FULL_COLOR or LOW_COLOR
+
+   private PictureSizing(int left, int top, int right, int bottom,
+         int sampleSize, int bytesPerPixel) {
+      this.left = left;
+      this.top = top;
+      this.right = right;
+      this.bottom = bottom;
+      this.sampleSize = sampleSize;
+      this.bytesPerPixel = bytesPerPixel;
+   }
+
+   /**
+    * Plan the decode of an image for a board.
+    * @param imageWidth width of the encoded image in pixels
+    * @param imageHeight height of the encoded image in pixels
+    * @param boardWidth width the board is drawn at in pixels
+    * @param boardHeight height the board is drawn at in pixels
+    * @param maxBytes memory the decoded picture and the board-sized copy
+    *        made from it may use together
+    * @return the plan
+    */
+   public static PictureSizing plan(int imageWidth, int imageHeight,
+         int boardWidth, int boardHeight, long maxBytes) {
+      if (imageWidth <= 0 || imageHeight <= 0 || boardWidth <= 0
+            || boardHeight <= 0) {
+         throw new IllegalArgumentException("Sizes must be positive");
+      }
+
+      // Crop whatever cannot be stretched to fit, keeping the centre
+      int width = imageWidth;
+      int height = imageHeight;
+      long imageAspect = (long) imageWidth * boardHeight; // compared to
+      long boardAspect = (long) boardWidth * imageHeight; // the same scale
+      if (imageAspect > boardAspect * MAX_STRETCH) {
+         width = (int) Math.ceil(MAX_STRETCH * boardWidth * imageHeight
+               / boardHeight);
+      } else if (boardAspect > imageAspect * MAX_STRETCH) {
+         height = (int) Math.ceil(MAX_STRETCH * boardHeight * imageWidth
+               / boardWidth);
+      }
+      width = Math.min(width, imageWidth);
+      height = Math.min(height, imageHeight);
+      int left = (imageWidth - width) / 2;
+      int top = (imageHeight - height) / 2;
+
+      // Subsample as far as possible without going below the board size.
+      int sampleSize = 1;
+      while (sampleSize < MAX_SAMPLE_SIZE
+            && width / (sampleSize * 2) >= boardWidth
+            && height / (sampleSize * 2) >= boardHeight) {
+         sampleSize *= 2;
+      }
+
+      // If that does not fit, give up color depth before resolution, and
+      // only then subsample further.
+      long pixels = decodedPixels(width, height, sampleSize)
+            + (long) boardWidth * boardHeight;
+      int bytesPerPixel = pixels * FULL_COLOR <= maxBytes
+            ? FULL_COLOR : LOW_COLOR;
+      while (sampleSize < MAX_SAMPLE_SIZE
+            && pixels * bytesPerPixel > maxBytes) {
+         sampleSize *= 2;
+         pixels = decodedPixels(width, height, sampleSize)
+               + (long) boardWidth * boardHeight;
+      }
+      return new PictureSizing(left, top, left + width, top + height,
+            sampleSize, bytesPerPixel);
+   }
+
+   /**
+    * Number of pixels a decoder produces for a region at a sample size.
+    * Decoders round partial samples up.
+    * @param width region width
+    * @param height region height
+    * @param sampleSize power of two
+    * @return pixel count of the decoded bitmap
+    */
+   public static long decodedPixels(int width, int height, int sampleSize) {
+      return (long) ((width + sampleSize - 1) / sampleSize)
+            * ((height + sampleSize - 1) / sampleSize);
+   }
+
+   /**
+    * @param imageWidth width of the encoded image, as passed to plan()
+    * @param imageHeight height of the encoded image, as passed to plan()
+    * @return true if only part of the image should be decoded
+    */
+   public boolean isCropped(int imageWidth, int imageHeight) {
+      return left > 0 || top > 0 || right < imageWidth
+            || bottom < imageHeight;
+   }
+
+   public int getLeft() {
+      return left;
+   }
+
+   public int getTop() {
+      return top;
+   }
+
+   public int getRight() {
+      return right;
+   }
+
+   public int getBottom() {
+      return bottom;
+   }
+
+   /**
+    * @return the power of two to pass as BitmapFactory inSampleSize
+    */
+   public int getSampleSize() {
+      return sampleSize;
+   }
+
+   /**
+    * @return FULL_COLOR or LOW_COLOR
+    */
+   public int getBytesPerPixel() {
+      return bytesPerPixel;
+   }
+}
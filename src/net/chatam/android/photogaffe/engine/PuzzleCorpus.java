@@ -0,0 +1,357 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A numbered set of starting boards of one grid size, such as daily
+ * challenges or difficulty tiers, optionally with the length of a shortest
+ * solution and the solution itself.
+ * File layout (big-endian):
+ * <pre>
+ *   int   magic 'PGPC'
+ *   short version
+ *   byte  grid size
+ *   byte  flags: 1 = lengths, 2 = solutions
+ *   int   puzzle count
+ *   per puzzle, a fixed-size record:
+ *     tile id at each position, packed in as few bits as the largest id
+ *       needs, first position in the high bits, padded to a byte
+ *     short shortest solution length, 0xFFFF if unknown (with lengths)
+ *     int   offset of the solution in the solution area, -1 if none (with
+ *           solutions)
+ *   solution area: each solution's blank moves, four to a byte, first move
+ *     in the high bits
+ * </pre>
+ * Records are all the same size, so the record of any puzzle is found by
+ * multiplying, and its solution through the offset in the record: reading
+ * one puzzle takes the same time however large the file.  Files are
+ * memory-mapped when loaded and nothing is read up front.  A loaded corpus
+ * is read only and may be shared between threads.
+ */
+public final class PuzzleCorpus {
+
+   public static final int MAGIC = 0x50475043; // "PGPC"
+   public static final int VERSION = 1;
+   public static final int LENGTHS = 1;
+   public static final int SOLUTIONS = 2;
+   public static final int UNKNOWN_LENGTH = 0xFFFF;
+
+   private static final int HEADER_SIZE = 12;
+   private static final int MOVES_PER_BYTE = 4;
+
+   private final int gridSize;
+   private final int flags;
+   private final int count;
+   private final ByteBuffer buffer; // whole file, read with absolute gets
+   private final int bitsPerTile;
+   private final int recordSize;
+   private final int solutionsStart; // offset of the solution area
+
+   private PuzzleCorpus(int gridSize, int flags, int count,
+         ByteBuffer buffer) {
+      this.gridSize = gridSize;
+      this.flags = flags;
+      this.count = count;
+      this.buffer = buffer;
+      this.bitsPerTile = bitsPerTile(gridSize);
+      this.recordSize = recordSize(gridSize, flags);
+      this.solutionsStart = HEADER_SIZE + count * recordSize;
+   }
+
+   /**
+    * Memory-map a corpus file.
+    * @param file a file written by a Writer
+    * @return the corpus
+    * @throws IOException if the file cannot be read or is not a corpus
+    */
+   public static PuzzleCorpus load(File file) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+         FileChannel channel = raf.getChannel();
+         return read(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+               channel.size()));
+      } finally {
+         raf.close(); // the mapping stays valid after closing
+      }
+   }
+
+   /**
+    * Use a buffer holding a corpus.  The buffer is not copied.
+    * @param buffer the file contents, positioned at the start
+    * @return the corpus
+    * @throws IOException if the contents are not a corpus
+    */
+   public static PuzzleCorpus read(ByteBuffer buffer) throws IOException {
+      ByteBuffer contents = buffer.slice();
+      if (contents.remaining() < HEADER_SIZE
+            || contents.getInt(0) != MAGIC
+            || contents.getShort(4) != VERSION) {
+         throw new IOException("Not a puzzle corpus");
+      }
+      int gridSize = contents.get(6);
+      int flags = contents.get(7);
+      int count = contents.getInt(8);
+      if (gridSize < 2 || gridSize > BoardState.MAX_GRID_SIZE || count < 0
+            || (flags & ~(LENGTHS | SOLUTIONS)) != 0) {
+         throw new IOException("Bad corpus header");
+      }
+      if (contents.remaining()
+            < HEADER_SIZE + (long) count * recordSize(gridSize, flags)) {
+         throw new IOException("Puzzle corpus is truncated");
+      }
+      return new PuzzleCorpus(gridSize, flags, count, contents);
+   }
+
+   public int getGridSize() {
+      return gridSize;
+   }
+
+   /**
+    * @return the number of puzzles
+    */
+   public int size() {
+      return count;
+   }
+
+   public boolean hasLengths() {
+      return (flags & LENGTHS) != 0;
+   }
+
+   public boolean hasSolutions() {
+      return (flags & SOLUTIONS) != 0;
+   }
+
+   /**
+    * @param index 0 for the first puzzle
+    * @param tiles destination for the tile id at each position
+    */
+   public void getTiles(int index, byte[] tiles) {
+      unpack(buffer, record(index), gridSize * gridSize, bitsPerTile, tiles);
+   }
+
+   /**
+    * @param index 0 for the first puzzle
+    * @return the length of a shortest solution, or -1 if it is not known
+    */
+   public int getLength(int index) {
+      if (!hasLengths()) {
+         return -1;
+      }
+      int length = buffer.getShort(record(index) + tileBytes(gridSize))
+            & 0xFFFF;
+      return length == UNKNOWN_LENGTH ? -1 : length;
+   }
+
+   /**
+    * @param index 0 for the first puzzle
+    * @return the blank's moves that solve the puzzle, or null if the
+    *         corpus has no solutions or this one is not known
+    */
+   public int[] getSolution(int index) {
+      int length = getLength(index);
+      if (!hasSolutions() || length < 0) {
+         return null;
+      }
+      int offset = buffer.getInt(record(index) + tileBytes(gridSize) + 2);
+      if (offset == -1) {
+         return null;
+      }
+      int start = solutionsStart + offset;
+      if (offset < 0 || start + (length + MOVES_PER_BYTE - 1)
+            / MOVES_PER_BYTE > buffer.limit()) {
+         throw new IllegalStateException("Solution " + index
+               + " is outside the file");
+      }
+      int[] moves = new int[length];
+      for (int i = 0; i < length; i++) {
+         int packed = buffer.get(start + i / MOVES_PER_BYTE);
+         moves[i] = (packed >>> (6 - (i % MOVES_PER_BYTE) * 2)) & 3;
+      }
+      return moves;
+   }
+
+   private int record(int index) {
+      if (index < 0 || index >= count) {
+         throw new IndexOutOfBoundsException("Puzzle " + index + " of "
+               + count);
+      }
+      return HEADER_SIZE + index * recordSize;
+   }
+
+   private static int bitsPerTile(int gridSize) {
+      return 32 - Integer.numberOfLeadingZeros(gridSize * gridSize - 1);
+   }
+
+   private static int tileBytes(int gridSize) {
+      return (gridSize * gridSize * bitsPerTile(gridSize) + 7) / 8;
+   }
+
+   private static int recordSize(int gridSize, int flags) {
+      return tileBytes(gridSize) + ((flags & LENGTHS) != 0 ? 2 : 0)
+            + ((flags & SOLUTIONS) != 0 ? 4 : 0);
+   }
+
+   /* (non-Javadoc)
+    * Read fixed-width tile ids, most significant bit first.
+    */
+   private static void unpack(ByteBuffer from, int offset, int cellCount,
+         int bits, byte[] tiles) {
+      int bit = 0;
+      for (int position = 0; position < cellCount; position++) {
+         int tile = 0;
+         for (int i = 0; i < bits; i++, bit++) {
+            int b = from.get(offset + bit / 8) >>> (7 - bit % 8);
+            tile = (tile << 1) | (b & 1);
+         }
+         tiles[position] = (byte) tile;
+      }
+   }
+
+   /* (non-Javadoc)
+    * The inverse of unpack.
+    */
+   private static void pack(byte[] tiles, int cellCount, int bits,
+         byte[] to) {
+      int bit = 0;
+      for (int position = 0; position < cellCount; position++) {
+         int tile = tiles[position] & 0xFF;
+         for (int i = bits - 1; i >= 0; i--, bit++) {
+            to[bit / 8] |= ((tile >>> i) & 1) << (7 - bit % 8);
+         }
+      }
+   }
+
+   /**
+    * Writes a corpus with a known number of puzzles.  Records may be put in
+    * any order, from several threads: each goes to its slot, and solutions
+    * are appended in the order they arrive.
+    */
+   public static final class Writer {
+
+      private final RandomAccessFile file;
+      private final FileChannel channel;
+      private final int gridSize;
+      private final int flags;
+      private final int count;
+      private final int recordSize;
+      private long solutionsEnd; // where the next solution goes
+      private final long solutionsStart;
+
+      /**
+       * @param file destination; replaced if it exists
+       * @param gridSize row and column count
+       * @param flags LENGTHS and SOLUTIONS, or 0
+       * @param count number of puzzles
+       * @throws IOException if the file cannot be written
+       */
+      public Writer(File file, int gridSize, int flags, int count)
+            throws IOException {
+         if ((flags & SOLUTIONS) != 0 && (flags & LENGTHS) == 0) {
+            throw new IllegalArgumentException(
+                  "Solutions need lengths");
+         }
+         this.file = new RandomAccessFile(file, "rw");
+         this.file.setLength(0);
+         this.channel = this.file.getChannel();
+         this.gridSize = gridSize;
+         this.flags = flags;
+         this.count = count;
+         this.recordSize = recordSize(gridSize, flags);
+         this.solutionsStart = HEADER_SIZE + (long) count * recordSize;
+         this.solutionsEnd = solutionsStart;
+
+         ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+         header.putInt(MAGIC).putShort((short) VERSION)
+               .put((byte) gridSize).put((byte) flags).putInt(count);
+         header.flip();
+         write(header, 0);
+      }
+
+      /**
+       * @param index the puzzle's number, 0 to count - 1
+       * @param tiles tile id at each position
+       * @param length length of a shortest solution, or -1 if not known
+       * @param solution the blank's moves, or null
+       * @throws IOException if the file cannot be written
+       */
+      public void put(int index, byte[] tiles, int length, int[] solution)
+            throws IOException {
+         if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Puzzle " + index + " of "
+                  + count);
+         }
+         if (solution != null && solution.length != length) {
+            throw new IllegalArgumentException("Solution is "
+                  + solution.length + " moves, length is " + length);
+         }
+         int cellCount = gridSize * gridSize;
+         byte[] packed = new byte[tileBytes(gridSize)];
+         pack(tiles, cellCount, bitsPerTile(gridSize), packed);
+         ByteBuffer record = ByteBuffer.allocate(recordSize);
+         record.put(packed);
+         byte[] moves = null;
+         if ((flags & LENGTHS) != 0) {
+            record.putShort((short) (length < 0 ? UNKNOWN_LENGTH : length));
+         }
+         if ((flags & SOLUTIONS) != 0) {
+            if (solution != null) {
+               moves = new byte[(solution.length + MOVES_PER_BYTE - 1)
+                     / MOVES_PER_BYTE];
+               for (int i = 0; i < solution.length; i++) {
+                  moves[i / MOVES_PER_BYTE] |= solution[i]
+                        << (6 - (i % MOVES_PER_BYTE) * 2);
+               }
+            }
+            record.putInt(-1); // the offset is filled in below
+         }
+         synchronized (this) {
+            if (moves != null) {
+               record.putInt(record.capacity() - 4,
+                     (int) (solutionsEnd - solutionsStart));
+               write(ByteBuffer.wrap(moves), solutionsEnd);
+               solutionsEnd += moves.length;
+            }
+            record.flip();
+            write(record, HEADER_SIZE + (long) index * recordSize);
+         }
+      }
+
+      /**
+       * Finish the file.  Puzzles that were never put read as all zeros.
+       * @throws IOException if the file cannot be written
+       */
+      public synchronized void close() throws IOException {
+         if (file.length() < solutionsStart) {
+            file.setLength(solutionsStart);
+         }
+         file.close();
+      }
+
+      private void write(ByteBuffer data, long position) throws IOException {
+         while (data.hasRemaining()) {
+            position += channel.write(data, position);
+         }
+      }
+   }
+}
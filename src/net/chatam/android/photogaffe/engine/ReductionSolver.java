@@ -0,0 +1,267 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.engine;
+
+import java.util.Arrays;
+
+/**
+ * Solves any board quickly, but not in the fewest moves.  It works the way
+ * people do: finish the top row, then the left column, and repeat on the
+ * smaller puzzle that is left until only 3x3 remains, which is then solved
+ * optimally.
+ * Each tile is brought home by a breadth-first search over the positions of
+ * that tile and the blank, with finished tiles locked in place.  The last two
+ * tiles of a row or column are placed together, searching over both tiles and
+ * the blank, which avoids the usual corner juggling.  Every search is small
+ * (at most cellCount^3 states), so the total time grows only polynomially
+ * with the board size.
+ * An instance is not thread safe.
+ */
+public final class ReductionSolver {
+
+   private static final int FINAL_SIZE = 3; // solved optimally at the end
+
+   private final int gridSize;
+   private final int cellCount;
+   private final BoardState state;
+   private final boolean[] locked; // positions the search may not disturb
+   private final int[] tracked = new int[2]; // tile ids being placed
+   private final int[] targets = new int[2]; // where they belong
+   private final int[] queue;
+   private final byte[] cameBy; // direction that first reached each state
+   private int[] moves = new int[256]; // solution so far
+   private int moveCount;
+
+   public ReductionSolver(int gridSize) {
+      this.gridSize = gridSize;
+      this.cellCount = gridSize * gridSize;
+      this.state = new BoardState(gridSize);
+      this.locked = new boolean[cellCount];
+      int states = cellCount * cellCount * cellCount;
+      this.queue = new int[states];
+      this.cameBy = new byte[states];
+   }
+
+   /**
+    * Finds a solution for the given board.  The board is not changed.
+    * @param start the board to solve; must be the same size as this solver
+    * @param token stops the search when cancelled or out of time
+    * @return the directions to move the blank, or null if the search was
+    *         stopped or the board cannot be solved
+    */
+   public int[] solve(BoardState start, CancellationToken token) {
+      if (start.getGridSize() != gridSize) {
+         throw new IllegalArgumentException("Solver is for " + gridSize
+               + "x" + gridSize + " boards");
+      }
+      if (!start.isSolvable()) {
+         return null;
+      }
+      byte[] tiles = new byte[cellCount];
+      start.copyTiles(tiles);
+      state.setTiles(tiles);
+      Arrays.fill(locked, false);
+      moveCount = 0;
+
+      int top = 0;
+      int left = 0;
+      while (gridSize - top > FINAL_SIZE || gridSize - left > FINAL_SIZE) {
+         if (token.isCancelled()) {
+            return null;
+         }
+         int height = gridSize - top;
+         int width = gridSize - left;
+         if (height > FINAL_SIZE && height >= width) {
+            for (int column = left; column < gridSize - 2; column++) {
+               placeOne(top * gridSize + column);
+            }
+            placeTwo(top * gridSize + gridSize - 2,
+                  top * gridSize + gridSize - 1);
+            top++;
+         } else {
+            for (int row = top; row < gridSize - 2; row++) {
+               placeOne(row * gridSize + left);
+            }
+            placeTwo((gridSize - 2) * gridSize + left,
+                  (gridSize - 1) * gridSize + left);
+            left++;
+         }
+      }
+      if (!solveCorner(top, left, token)) {
+         return null;
+      }
+      return simplify();
+   }
+
+   /* (non-Javadoc)
+    * Bring the tile that belongs at the position home and lock it.
+    */
+   private void placeOne(int target) {
+      tracked[0] = target;
+      targets[0] = target;
+      if (state.getPositionOf(target) != target) {
+         search(1);
+      }
+      locked[target] = true;
+   }
+
+   /* (non-Javadoc)
+    * Bring the last two tiles of a row or column home together and lock
+    * them.
+    */
+   private void placeTwo(int first, int second) {
+      tracked[0] = first;
+      targets[0] = first;
+      tracked[1] = second;
+      targets[1] = second;
+      if (state.getPositionOf(first) != first
+            || state.getPositionOf(second) != second) {
+         search(2);
+      }
+      locked[first] = true;
+      locked[second] = true;
+   }
+
+   /* (non-Javadoc)
+    * Breadth-first search over the positions of the tracked tiles and the
+    * blank, moving the blank only through unlocked positions, then play the
+    * shortest path found on the board.
+    */
+   private void search(int count) {
+      int states = count == 1 ? cellCount * cellCount
+            : cellCount * cellCount * cellCount;
+      Arrays.fill(cameBy, 0, states, (byte) -1);
+      int start = encode(count, state.getPositionOf(tracked[0]),
+            count == 1 ? 0 : state.getPositionOf(tracked[1]),
+            state.getBlankIndex());
+      cameBy[start] = (byte) BoardState.DIRECTION_COUNT; // the root
+      int head = 0;
+      int tail = 0;
+      queue[tail++] = start;
+      int goal = -1;
+      while (head < tail) {
+         int current = queue[head++];
+         int blank = current % cellCount;
+         int first = count == 1 ? current / cellCount
+               : current / (cellCount * cellCount);
+         int second = count == 1 ? -1 : (current / cellCount) % cellCount;
+         if (first == targets[0] && (count == 1 || second == targets[1])) {
+            goal = current;
+            break;
+         }
+         for (int direction = 0; direction < BoardState.DIRECTION_COUNT;
+               direction++) {
+            int to = state.neighbor(blank, direction);
+            if (to < 0 || locked[to]) {
+               continue;
+            }
+            int nextFirst = first == to ? blank : first;
+            int nextSecond = second == to ? blank : second;
+            int next = encode(count, nextFirst, nextSecond, to);
+            if (cameBy[next] < 0) {
+               cameBy[next] = (byte) direction;
+               queue[tail++] = next;
+            }
+         }
+      }
+      if (goal < 0) {
+         throw new IllegalStateException("Tile cannot be placed");
+      }
+
+      // Walk back to the start, collecting directions in reverse
+      int length = 0;
+      for (int current = goal; cameBy[current] != BoardState.DIRECTION_COUNT;
+            length++) {
+         int direction = cameBy[current];
+         queue[length] = direction;
+         int blank = current % cellCount;
+         int from = state.neighbor(blank, BoardState.opposite(direction));
+         int first = count == 1 ? current / cellCount
+               : current / (cellCount * cellCount);
+         int second = count == 1 ? -1 : (current / cellCount) % cellCount;
+         current = encode(count, first == from ? blank : first,
+               second == from ? blank : second, from);
+      }
+      for (int i = length - 1; i >= 0; i--) {
+         play(queue[i]);
+      }
+   }
+
+   private int encode(int count, int first, int second, int blank) {
+      return count == 1 ? first * cellCount + blank
+            : (first * cellCount + second) * cellCount + blank;
+   }
+
+   /* (non-Javadoc)
+    * Solve the remaining 3x3 corner optimally by relabelling it as a board
+    * of its own.  Directions are the same on both boards.
+    */
+   private boolean solveCorner(int top, int left, CancellationToken token) {
+      BoardState corner = new BoardState(FINAL_SIZE);
+      byte[] tiles = new byte[FINAL_SIZE * FINAL_SIZE];
+      for (int row = 0; row < FINAL_SIZE; row++) {
+         for (int column = 0; column < FINAL_SIZE; column++) {
+            int tile = state.getTileAt((top + row) * gridSize + left + column);
+            int local = tile == state.getBlankTile() ? corner.getBlankTile()
+                  : (tile / gridSize - top) * FINAL_SIZE
+                  + tile % gridSize - left;
+            tiles[row * FINAL_SIZE + column] = (byte) local;
+         }
+      }
+      corner.setTiles(tiles);
+      int[] solution = new Solver(FINAL_SIZE).solve(corner, token);
+      if (solution == null) {
+         return false;
+      }
+      for (int i = 0; i < solution.length; i++) {
+         play(solution[i]);
+      }
+      return true;
+   }
+
+   private void play(int direction) {
+      if (!state.move(direction)) {
+         throw new IllegalStateException("Illegal move");
+      }
+      if (moveCount == moves.length) {
+         int[] larger = new int[moves.length * 2];
+         System.arraycopy(moves, 0, larger, 0, moveCount);
+         moves = larger;
+      }
+      moves[moveCount++] = direction;
+   }
+
+   /* (non-Javadoc)
+    * Drop moves that are immediately undone, which can happen where one
+    * placement ends and the next begins.
+    */
+   private int[] simplify() {
+      int length = 0;
+      for (int i = 0; i < moveCount; i++) {
+         if (length > 0
+               && moves[length - 1] == BoardState.opposite(moves[i])) {
+            length--;
+         } else {
+            moves[length++] = moves[i];
+         }
+      }
+      int[] solution = new int[length];
+      System.arraycopy(moves, 0, solution, 0, length);
+      return solution;
+   }
+}
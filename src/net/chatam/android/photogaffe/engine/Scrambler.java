@@ -0,0 +1,165 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.engine;
+
+import java.util.Random;
+
+/**
+ * Produces starting arrangements of a chosen difficulty.  Every scramble is
+ * determined by its seed, so the same seed always gives the same puzzle.
+ * Scrambles are made by walking the blank randomly from the solved board,
+ * which is always solvable and never needs a retry.
+ */
+public final class Scrambler {
+
+   /**
+    * How hard a scramble should be.  The bands are fractions of the expected
+    * Manhattan distance of a completely random board of the same size.
+    */
+   public enum Difficulty {
+      EASY(0.15, 0.30),
+      MEDIUM(0.35, 0.55),
+      HARD(0.60, 0.80),
+      RANDOM(0, 0); // uniformly random solvable board
+
+      private final double low;
+      private final double high;
+
+      private Difficulty(double low, double high) {
+         this.low = low;
+         this.high = high;
+      }
+   }
+
+   // Give up on hitting the band after this many walks and keep the closest
+   private static final int MAX_ATTEMPTS = 64;
+
+   private final BoardState state;
+   private final LinearConflict linearConflict;
+   private final byte[] best; // closest arrangement seen while sampling
+
+   /**
+    * @param state the board to scramble in place
+    */
+   public Scrambler(BoardState state) {
+      this.state = state;
+      this.linearConflict = new LinearConflict(state.getGridSize());
+      this.best = new byte[state.getCellCount()];
+   }
+
+   /**
+    * Scramble the board to the given difficulty.
+    * @param difficulty the target difficulty
+    * @param seed the same seed always gives the same board
+    */
+   public void scramble(Difficulty difficulty, long seed) {
+      Random random = new Random(seed);
+      if (difficulty == Difficulty.RANDOM) {
+         state.shuffle(random);
+         return;
+      }
+      double expected = expectedManhattanDistance(state.getGridSize());
+      scrambleToBand((int) Math.round(difficulty.low * expected),
+            (int) Math.round(difficulty.high * expected),
+            random);
+   }
+
+   /**
+    * Walk the blank the given number of steps from the solved board, never
+    * immediately undoing the previous step.
+    * @param moves number of steps to take
+    * @param seed the same seed always gives the same board
+    */
+   public void randomWalk(int moves, long seed) {
+      state.reset();
+      walk(moves, new Random(seed), Integer.MAX_VALUE, Integer.MAX_VALUE);
+   }
+
+   /**
+    * Make random walks from the solved board until one reaches a board whose
+    * Manhattan distance plus linear conflict is within the given band.  If
+    * no walk hits the band the closest board seen is used.
+    * @param low smallest acceptable estimate
+    * @param high largest acceptable estimate
+    * @param random source of randomness
+    */
+   public void scrambleToBand(int low, int high, Random random) {
+      int cellCount = state.getCellCount();
+      // Long enough to reach far from solved on any board size
+      int maxSteps = 4 * cellCount * state.getGridSize();
+      int bestDistance = Integer.MAX_VALUE;
+
+      for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+         state.reset();
+         int estimate = walk(maxSteps, random, low, high);
+         int distance = estimate < low ? low - estimate
+               : estimate > high ? estimate - high : 0;
+         if (distance == 0) {
+            return;
+         }
+         if (distance < bestDistance) {
+            bestDistance = distance;
+            state.copyTiles(best);
+         }
+      }
+      state.setTiles(best);
+   }
+
+   /* (non-Javadoc)
+    * Take up to the given number of non-backtracking steps, stopping as soon
+    * as the estimate lands in [low, high].  Returns the final estimate.
+    */
+   private int walk(int steps, Random random, int low, int high) {
+      int previous = -1;
+      int estimate = 0;
+      boolean checkBand = high != Integer.MAX_VALUE;
+      for (int step = 0; step < steps; step++) {
+         int direction = random.nextInt(BoardState.DIRECTION_COUNT);
+         if (direction == BoardState.opposite(previous)
+               || !state.move(direction)) {
+            // Try the other directions in order so the walk never stalls
+            int tried = 0;
+            do {
+               direction = (direction + 1) % BoardState.DIRECTION_COUNT;
+               tried++;
+            } while (tried < BoardState.DIRECTION_COUNT
+                  && (direction == BoardState.opposite(previous)
+                        || !state.move(direction)));
+         }
+         previous = direction;
+         if (checkBand && state.getManhattanDistance() >= low) {
+            estimate = state.getManhattanDistance()
+                  + linearConflict.total(state);
+            if (estimate >= low && estimate <= high) {
+               return estimate;
+            }
+         }
+      }
+      return checkBand ? state.getManhattanDistance()
+            + linearConflict.total(state) : estimate;
+   }
+
+   /**
+    * The average Manhattan distance of a uniformly random board.  Each
+    * coordinate of a tile is off by (n^2 - 1) / 3n on average.
+    */
+   public static double expectedManhattanDistance(int gridSize) {
+      int tiles = gridSize * gridSize - 1;
+      return tiles * 2.0 * (gridSize * gridSize - 1) / (3.0 * gridSize);
+   }
+}
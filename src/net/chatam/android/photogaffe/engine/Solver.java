@@ -0,0 +1,327 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.engine;
+
+/**
+ * Finds a shortest sequence of blank moves that solves a board, using
+ * iterative deepening A* (IDA*) with the Manhattan distance plus linear
+ * conflict as the estimate, or an additive pattern database when one is
+ * given.
+ * The search works on its own copy of the board and moves and un-moves tiles
+ * in place, updating the estimate for only the rows or columns a move
+ * touches, so no objects are created per node.  Practical for 3x3 boards, and
+ * for 4x4 boards with a pattern database; larger boards should be given a
+ * time budget.
+ * With a TranspositionTable, a board already reached at the same or a
+ * smaller depth in the current iteration is not searched again, which
+ * cuts the duplicate paths IDA* otherwise explores through cycles.
+ * An instance is not thread safe.
+ */
+public final class Solver {
+
+   // How many nodes to expand between cancellation checks
+   private static final int CHECK_INTERVAL = 4096;
+
+   private final int gridSize;
+   private final BoardState state;
+   private final LinearConflict linearConflict;
+   private final AdditivePatternDatabase patterns; // null if not available
+   private final TranspositionTable table; // null if not pruning duplicates
+   private int generation; // of the table, one per iteration
+   private final int[] patternExtras; // current value of each group
+   private int patternExtra; // sum of patternExtras
+   private final int[] rowConflicts; // linear conflict of each row
+   private final int[] columnConflicts; // linear conflict of each column
+   private int conflicts; // sum of the row and column conflicts
+   private int[] path = new int[128]; // directions taken from the start
+   private int nextThreshold; // smallest estimate that exceeded the bound
+   private long nodes; // nodes expanded by the last solve
+   private int untilCheck;
+   private CancellationToken token;
+   private boolean stopped;
+
+   public Solver(int gridSize) {
+      this(gridSize, null);
+   }
+
+   /**
+    * @param gridSize row and column count of the boards to solve
+    * @param patterns pattern database for the grid size, or null to use
+    *        only the Manhattan distance and linear conflict
+    */
+   public Solver(int gridSize, AdditivePatternDatabase patterns) {
+      this(gridSize, patterns, null);
+   }
+
+   /**
+    * @param gridSize row and column count of the boards to solve
+    * @param patterns pattern database for the grid size, or null to use
+    *        only the Manhattan distance and linear conflict
+    * @param table for pruning boards reached twice, or null; used by this
+    *        solver alone
+    */
+   public Solver(int gridSize, AdditivePatternDatabase patterns,
+         TranspositionTable table) {
+      if (patterns != null && patterns.getGridSize() != gridSize) {
+         throw new IllegalArgumentException("Pattern database is for "
+               + patterns.getGridSize() + "x" + patterns.getGridSize());
+      }
+      this.patterns = patterns;
+      this.table = table;
+      this.patternExtras = new int[patterns == null ? 0
+            : patterns.getPatternCount()];
+      this.gridSize = gridSize;
+      this.state = new BoardState(gridSize);
+      this.linearConflict = new LinearConflict(gridSize);
+      this.rowConflicts = new int[gridSize];
+      this.columnConflicts = new int[gridSize];
+   }
+
+   /**
+    * Finds a shortest solution for the given board.  The board is not
+    * changed.
+    * @param start the board to solve; must be the same size as this solver
+    * @param token stops the search when cancelled or out of time
+    * @return the directions to move the blank, or null if the search was
+    *         stopped or the board cannot be solved
+    */
+   public int[] solve(BoardState start, CancellationToken token) {
+      if (start.getGridSize() != gridSize) {
+         throw new IllegalArgumentException("Solver is for " + gridSize
+               + "x" + gridSize + " boards");
+      }
+      if (!start.isSolvable()) {
+         return null;
+      }
+      load(start, token);
+      int threshold = estimate();
+      while (true) {
+         if (threshold >= path.length) {
+            path = new int[threshold * 2];
+         }
+         nextThreshold = Integer.MAX_VALUE;
+         nextGeneration();
+         int length = search(0, threshold, -1);
+         if (length >= 0) {
+            int[] solution = new int[length];
+            System.arraycopy(path, 0, solution, 0, length);
+            return solution;
+         }
+         if (stopped || nextThreshold == Integer.MAX_VALUE) {
+            return null;
+         }
+         threshold = nextThreshold;
+      }
+   }
+
+   /* (non-Javadoc)
+    * Copy the board and compute the estimate from scratch, ready to search.
+    */
+   void load(BoardState start, CancellationToken token) {
+      byte[] tiles = new byte[start.getCellCount()];
+      start.copyTiles(tiles);
+      state.setTiles(tiles);
+      for (int line = 0; line < gridSize; line++) {
+         rowConflicts[line] = linearConflict.row(state, line);
+         columnConflicts[line] = linearConflict.column(state, line);
+      }
+      conflicts = linearConflict.total(state);
+      patternExtra = 0;
+      for (int p = 0; p < patternExtras.length; p++) {
+         patternExtras[p] = patterns.extra(p, state);
+         patternExtra += patternExtras[p];
+      }
+
+      this.token = token;
+      this.stopped = false;
+      this.nodes = 0;
+      this.untilCheck = CHECK_INTERVAL;
+   }
+
+   /* (non-Javadoc)
+    * Forget the boards the table holds from earlier searches.
+    */
+   private void nextGeneration() {
+      if (table != null && ++generation <= 0) {
+         generation = 1; // entries never have generation 0
+         table.clear();
+      }
+   }
+
+   /* (non-Javadoc)
+    * Search one subtree for ParallelSolver: play the prefix from the loaded
+    * board, checking the bound at each step as search() would, search
+    * below it, and play the prefix back.  The loaded board is unchanged
+    * afterwards.  Returns the solution, or null with getNextThreshold()
+    * giving the smallest estimate over the bound.
+    */
+   int[] searchSubtree(int[] prefix, int bound, CancellationToken token) {
+      this.token = token;
+      this.stopped = false;
+      if (bound >= path.length) {
+         path = new int[bound * 2];
+      }
+      nextThreshold = Integer.MAX_VALUE;
+      nextGeneration();
+      int length = -1;
+      int played = 0;
+      while (played < prefix.length) {
+         applyMove(prefix[played]);
+         path[played] = prefix[played];
+         played++;
+         int f = played + estimate();
+         if (f > bound) {
+            nextThreshold = f;
+            break;
+         }
+      }
+      if (played == prefix.length) {
+         length = search(played, bound,
+               played == 0 ? -1 : prefix[played - 1]);
+      }
+      while (played > 0) {
+         applyMove(BoardState.opposite(prefix[--played]));
+      }
+      if (length < 0) {
+         return null;
+      }
+      int[] solution = new int[length];
+      System.arraycopy(path, 0, solution, 0, length);
+      return solution;
+   }
+
+   /* (non-Javadoc)
+    * The smallest estimate over the bound seen by the last searchSubtree.
+    */
+   int getNextThreshold() {
+      return nextThreshold;
+   }
+
+   /* (non-Javadoc)
+    * Lower bound on the moves left from the loaded board.
+    */
+   int getEstimate() {
+      return estimate();
+   }
+
+   /**
+    * @return the number of nodes expanded by the most recent solve
+    */
+   public long getNodeCount() {
+      return nodes;
+   }
+
+   /* (non-Javadoc)
+    * Lower bound on the moves left from the current board.
+    */
+   private int estimate() {
+      return state.getManhattanDistance()
+            + Math.max(conflicts, 2 * patternExtra);
+   }
+
+   /* (non-Javadoc)
+    * Depth-first search below the current board, not exceeding the bound.
+    * Returns the solution length if one is found, otherwise -1.
+    */
+   private int search(int depth, int bound, int previous) {
+      int f = depth + estimate();
+      if (f > bound) {
+         if (f < nextThreshold) {
+            nextThreshold = f;
+         }
+         return -1;
+      }
+      if (state.isSolved()) {
+         return depth;
+      }
+      if (table != null
+            && table.visit(state.getHash(), generation, depth)) {
+         return -1;
+      }
+      nodes++;
+      if (--untilCheck == 0) {
+         untilCheck = CHECK_INTERVAL;
+         if (token.isCancelled()) {
+            stopped = true;
+         }
+      }
+      if (stopped) {
+         return -1;
+      }
+      for (int direction = 0; direction < BoardState.DIRECTION_COUNT;
+            direction++) {
+         if (direction == BoardState.opposite(previous)
+               || !applyMove(direction)) {
+            continue;
+         }
+         path[depth] = direction;
+         int length = search(depth + 1, bound, direction);
+         applyMove(BoardState.opposite(direction));
+         if (length >= 0) {
+            return length;
+         }
+         if (stopped) {
+            return -1;
+         }
+      }
+      return -1;
+   }
+
+   /* (non-Javadoc)
+    * Move the blank and update the linear conflict for the two lines the
+    * moved tile left and entered, and the table value of the moved tile's
+    * group.  A horizontal move keeps the tile in its row and the order of
+    * the row's tiles, so only columns change; vertical moves likewise only
+    * change rows.
+    */
+   private boolean applyMove(int direction) {
+      int from = state.getBlankIndex();
+      if (!state.move(direction)) {
+         return false;
+      }
+      int to = state.getBlankIndex();
+      if (patterns != null) {
+         int p = patterns.patternOf(state.getTileAt(from));
+         if (p >= 0) {
+            int value = patterns.extra(p, state);
+            patternExtra += value - patternExtras[p];
+            patternExtras[p] = value;
+         }
+      }
+      if (direction == BoardState.LEFT || direction == BoardState.RIGHT) {
+         updateColumn(state.getColumn(from));
+         updateColumn(state.getColumn(to));
+      } else {
+         updateRow(state.getRow(from));
+         updateRow(state.getRow(to));
+      }
+      return true;
+   }
+
+   private void updateRow(int row) {
+      int value = linearConflict.row(state, row);
+      conflicts += value - rowConflicts[row];
+      rowConflicts[row] = value;
+   }
+
+   private void updateColumn(int column) {
+      int value = linearConflict.column(state, column);
+      conflicts += value - columnConflicts[column];
+      columnConflicts[column] = value;
+   }
+}
@@ -0,0 +1,142 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.engine;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size map from board hashes (BoardState.getHash()) to the depth at
+ * which the board was reached, kept in one long[] with no objects per
+ * entry.  Each hash has a bucket of two slots; a new entry takes an empty
+ * or stale slot, otherwise the one with the greater depth, since a board
+ * found nearer the start stands for more of the search.
+ * Entries carry a generation, so the whole table is forgotten by moving to
+ * the next generation instead of clearing it.  Generations start at 1; an
+ * empty slot reads as generation 0.
+ * Each slot is two longs, the entry and the entry XOR the hash, so a slot
+ * half written by another thread fails the check and reads as empty.  That
+ * makes the table safe to share between threads without locks; a lost
+ * entry only costs some pruning.
+ */
+public final class TranspositionTable {
+
+   private static final int SLOT_LONGS = 2;
+   private static final int BUCKET_SLOTS = 2;
+   private static final long DEPTH_MASK = 0xFFFFFFFFL;
+
+   private final long[] slots; // [check, entry] pairs
+   private final int bucketMask;
+
+   /**
+    * @param sizeLog2 the table holds 2^sizeLog2 entries, in 16 bytes each
+    */
+   public TranspositionTable(int sizeLog2) {
+      if (sizeLog2 < 1 || sizeLog2 > 26) {
+         throw new IllegalArgumentException("Unsupported size 2^" + sizeLog2);
+      }
+      this.slots = new long[(1 << sizeLog2) * SLOT_LONGS];
+      this.bucketMask = (1 << (sizeLog2 - 1)) - 1;
+   }
+
+   /**
+    * @param hash a board hash
+    * @param generation the current generation
+    * @return the depth stored for the board in this generation, or -1
+    */
+   public int get(long hash, int generation) {
+      int base = bucket(hash);
+      for (int slot = 0; slot < BUCKET_SLOTS; slot++) {
+         int i = base + slot * SLOT_LONGS;
+         long entry = slots[i + 1];
+         if ((slots[i] ^ entry) == hash
+               && generationOf(entry) == generation) {
+            return (int) (entry & DEPTH_MASK);
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * Record the depth at which a board was reached, replacing any entry for
+    * the same board.
+    * @param hash a board hash
+    * @param generation the current generation
+    * @param depth the depth, at least 0
+    */
+   public void put(long hash, int generation, int depth) {
+      long entry = ((long) generation << 32) | (depth & DEPTH_MASK);
+      int base = bucket(hash);
+      int victim = -1;
+      int victimRank = -1; // same board 3, empty or stale 2, deepest 1
+      long victimDepth = -1;
+      for (int slot = 0; slot < BUCKET_SLOTS; slot++) {
+         int i = base + slot * SLOT_LONGS;
+         long current = slots[i + 1];
+         int rank;
+         if ((slots[i] ^ current) == hash) {
+            rank = 3;
+         } else if (generationOf(current) != generation) {
+            rank = 2;
+         } else {
+            rank = 1;
+         }
+         if (rank > victimRank || (rank == 1 && victimRank == 1
+               && (current & DEPTH_MASK) > victimDepth)) {
+            victim = i;
+            victimRank = rank;
+            victimDepth = current & DEPTH_MASK;
+         }
+      }
+      slots[victim + 1] = entry;
+      slots[victim] = hash ^ entry;
+   }
+
+   /**
+    * For duplicate pruning in a depth-first search: has the board already
+    * been reached in this generation at the same or a smaller depth?  If
+    * not, this visit is recorded.
+    * @param hash a board hash
+    * @param generation the current generation
+    * @param depth the depth of this visit
+    * @return true if the board can be skipped
+    */
+   public boolean visit(long hash, int generation, int depth) {
+      int stored = get(hash, generation);
+      if (stored >= 0 && stored <= depth) {
+         return true;
+      }
+      put(hash, generation, depth);
+      return false;
+   }
+
+   /**
+    * Forget every entry.  Moving to a new generation does the same without
+    * touching memory.
+    */
+   public void clear() {
+      Arrays.fill(slots, 0);
+   }
+
+   private int bucket(long hash) {
+      return ((int) (hash >>> 32) & bucketMask) * BUCKET_SLOTS * SLOT_LONGS;
+   }
+
+   private static int generationOf(long entry) {
+      return (int) (entry >>> 32);
+   }
+}
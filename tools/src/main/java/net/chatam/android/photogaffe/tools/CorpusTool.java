@@ -0,0 +1,375 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.chatam.android.photogaffe.engine.AdditivePatternDatabase;
+import net.chatam.android.photogaffe.engine.BoardState;
+import net.chatam.android.photogaffe.engine.CancellationToken;
+import net.chatam.android.photogaffe.engine.ParallelSolver;
+import net.chatam.android.photogaffe.engine.PerfectTable;
+import net.chatam.android.photogaffe.engine.Permutations;
+import net.chatam.android.photogaffe.engine.PuzzleCorpus;
+import net.chatam.android.photogaffe.engine.Scrambler;
+import net.chatam.android.photogaffe.engine.Scrambler.Difficulty;
+import net.chatam.android.photogaffe.engine.Solver;
+import net.chatam.android.photogaffe.engine.TranspositionTable;
+
+/**
+ * Makes and checks puzzle corpora (see PuzzleCorpus) on every core.
+ * <pre>
+ *   java -cp tools/target/photogaffe-tools.jar \
+ *      net.chatam.android.photogaffe.tools.CorpusTool \
+ *      generate file grid-size count [seed] [EASY|MEDIUM|HARD|RANDOM]
+ *   ... CorpusTool solve [--parallel] in-file out-file [pattern database]
+ *   ... CorpusTool validate file
+ * </pre>
+ * generate scrambles puzzle i from seed + i.  solve finds a shortest
+ * solution for every puzzle: 3x3 boards are looked up in the PerfectTable,
+ * larger ones need a pattern database to finish in reasonable time.
+ * Puzzles are solved on all cores at once, one per thread, which keeps
+ * every core busy when there are many of them.  With --parallel they are
+ * solved one at a time, each by a ParallelSolver on all cores, which is
+ * faster for a handful of very hard ones, where one slow puzzle would
+ * otherwise hold up the end of the run on a single core.
+ * validate checks every board is a solvable arrangement and every solution
+ * solves its board in the stated number of moves, then prints how many
+ * puzzles there are of each length, for grading.
+ * Input is memory-mapped and each result is written to its record as soon
+ * as it is ready, so corpora much larger than the heap are fine.
+ */
+public final class CorpusTool {
+
+   private static final int PUZZLES_PER_TASK = 64; // smallest unit of work
+   private static final int MAX_REPORTED_FAILURES = 10;
+   private static final int MAX_LENGTH = 1024; // for the length counts
+   private static final int TABLE_SIZE_LOG2 = 18; // 4 MB per thread
+
+   private CorpusTool() {
+   }
+
+   /**
+    * Something done for one puzzle.
+    */
+   interface PuzzleJob {
+      void run(int index) throws IOException;
+   }
+
+   /* (non-Javadoc)
+    * Splits the puzzle range in half until it is small, then runs the job
+    * on each puzzle.
+    */
+   private static final class JobTask extends RecursiveAction {
+
+      private static final long serialVersionUID = 1L;
+      private final PuzzleJob job;
+      private final int from;
+      private final int to;
+
+      JobTask(PuzzleJob job, int from, int to) {
+         this.job = job;
+         this.from = from;
+         this.to = to;
+      }
+
+      @Override
+      protected void compute() {
+         if (to - from > PUZZLES_PER_TASK) {
+            int middle = (from + to) >>> 1;
+            invokeAll(new JobTask(job, from, middle),
+                  new JobTask(job, middle, to));
+            return;
+         }
+         try {
+            for (int i = from; i < to; i++) {
+               job.run(i);
+            }
+         } catch (IOException e) {
+            throw new UncheckedIOException(e);
+         }
+      }
+   }
+
+   public static void main(String[] args) throws IOException {
+      if (args.length < 2) {
+         System.err.println("usage: CorpusTool generate file grid-size count "
+               + "[seed] [difficulty] | solve [--parallel] in-file out-file "
+               + "[pattern database] | validate file");
+         System.exit(2);
+      }
+      List<String> arguments = new ArrayList<String>(Arrays.asList(args));
+      boolean parallel = arguments.remove("--parallel");
+      args = arguments.toArray(new String[arguments.size()]);
+      long start = System.nanoTime();
+      int puzzles;
+      List<String> failures = new ArrayList<String>();
+      if (args[0].equals("generate") && args.length >= 4) {
+         puzzles = Integer.parseInt(args[3]);
+         generate(new File(args[1]), Integer.parseInt(args[2]), puzzles,
+               args.length > 4 ? Long.parseLong(args[4]) : 1,
+               args.length > 5 ? Difficulty.valueOf(args[5])
+                     : Difficulty.RANDOM);
+      } else if (args[0].equals("solve") && args.length >= 3) {
+         AdditivePatternDatabase patterns = args.length > 3
+               ? AdditivePatternDatabase.load(new File(args[3])) : null;
+         puzzles = parallel
+               ? solveEach(new File(args[1]), new File(args[2]), patterns)
+               : solve(new File(args[1]), new File(args[2]), patterns);
+      } else if (args[0].equals("validate")) {
+         puzzles = validate(new File(args[1]), failures);
+      } else {
+         throw new IllegalArgumentException("Unknown command " + args[0]);
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.printf("%d puzzles in %.2f s on %d threads%n", puzzles,
+            seconds, parallel ? Runtime.getRuntime().availableProcessors()
+                  : ForkJoinPool.commonPool().getParallelism());
+      for (String failure : failures) {
+         System.out.println("FAILED " + failure);
+      }
+      if (!failures.isEmpty()) {
+         System.exit(1);
+      }
+   }
+
+   /* (non-Javadoc)
+    * Run a job for every puzzle on the common pool.
+    */
+   private static void runAll(PuzzleJob job, int count) throws IOException {
+      try {
+         ForkJoinPool.commonPool().invoke(new JobTask(job, 0, count));
+      } catch (UncheckedIOException e) {
+         throw e.getCause();
+      }
+   }
+
+   /**
+    * Write a corpus of scrambled boards without lengths.
+    * @param file destination
+    * @param gridSize row and column count
+    * @param count number of puzzles
+    * @param seed puzzle i is scrambled from seed + i
+    * @param difficulty how far from solved the puzzles should be
+    * @throws IOException if the file cannot be written
+    */
+   public static void generate(File file, final int gridSize, int count,
+         final long seed, final Difficulty difficulty) throws IOException {
+      final PuzzleCorpus.Writer writer =
+            new PuzzleCorpus.Writer(file, gridSize, 0, count);
+      final ThreadLocal<BoardState> boards = new ThreadLocal<BoardState>() {
+         @Override
+         protected BoardState initialValue() {
+            return new BoardState(gridSize);
+         }
+      };
+      try {
+         runAll(new PuzzleJob() {
+            public void run(int index) throws IOException {
+               BoardState board = boards.get();
+               new Scrambler(board).scramble(difficulty, seed + index);
+               byte[] tiles = new byte[board.getCellCount()];
+               board.copyTiles(tiles);
+               writer.put(index, tiles, -1, null);
+            }
+         }, count);
+      } finally {
+         writer.close();
+      }
+   }
+
+   /**
+    * Copy a corpus, adding a shortest solution for every puzzle.
+    * @param in corpus to solve
+    * @param out destination
+    * @param patterns database for boards larger than 3x3, or null
+    * @return the number of puzzles
+    * @throws IOException if either file cannot be used
+    */
+   public static int solve(File in, File out,
+         final AdditivePatternDatabase patterns) throws IOException {
+      final PuzzleCorpus corpus = PuzzleCorpus.load(in);
+      final int gridSize = corpus.getGridSize();
+      final PuzzleCorpus.Writer writer = new PuzzleCorpus.Writer(out,
+            gridSize, PuzzleCorpus.LENGTHS | PuzzleCorpus.SOLUTIONS,
+            corpus.size());
+      final ThreadLocal<BoardState> boards = new ThreadLocal<BoardState>() {
+         @Override
+         protected BoardState initialValue() {
+            return new BoardState(gridSize);
+         }
+      };
+      final ThreadLocal<Solver> solvers = new ThreadLocal<Solver>() {
+         @Override
+         protected Solver initialValue() {
+            return new Solver(gridSize, patterns,
+                  new TranspositionTable(TABLE_SIZE_LOG2));
+         }
+      };
+      try {
+         runAll(new PuzzleJob() {
+            public void run(int index) throws IOException {
+               byte[] tiles = new byte[gridSize * gridSize];
+               corpus.getTiles(index, tiles);
+               BoardState board = boards.get();
+               board.setTiles(tiles);
+               int[] solution = gridSize == PerfectTable.GRID_SIZE
+                     ? PerfectTable.getInstance().solve(board)
+                     : solvers.get().solve(board, new CancellationToken());
+               writer.put(index, tiles,
+                     solution == null ? -1 : solution.length, solution);
+            }
+         }, corpus.size());
+      } finally {
+         writer.close();
+      }
+      return corpus.size();
+   }
+
+   /**
+    * Like solve, but one puzzle at a time, each searched on every core by a
+    * ParallelSolver.  For a few hard puzzles rather than many easy ones.
+    * @param in corpus to solve
+    * @param out destination
+    * @param patterns database for boards larger than 3x3, or null
+    * @return the number of puzzles
+    * @throws IOException if either file cannot be used
+    */
+   public static int solveEach(File in, File out,
+         AdditivePatternDatabase patterns) throws IOException {
+      PuzzleCorpus corpus = PuzzleCorpus.load(in);
+      int gridSize = corpus.getGridSize();
+      int threads = Runtime.getRuntime().availableProcessors();
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      PuzzleCorpus.Writer writer = new PuzzleCorpus.Writer(out, gridSize,
+            PuzzleCorpus.LENGTHS | PuzzleCorpus.SOLUTIONS, corpus.size());
+      try {
+         ParallelSolver solver = new ParallelSolver(gridSize, patterns,
+               executor, threads);
+         BoardState board = new BoardState(gridSize);
+         byte[] tiles = new byte[board.getCellCount()];
+         for (int index = 0; index < corpus.size(); index++) {
+            corpus.getTiles(index, tiles);
+            board.setTiles(tiles);
+            int[] solution = solver.solve(board, new CancellationToken());
+            writer.put(index, tiles,
+                  solution == null ? -1 : solution.length, solution);
+         }
+      } finally {
+         writer.close();
+         executor.shutdown();
+      }
+      return corpus.size();
+   }
+
+   /**
+    * Check every puzzle of a corpus and print the number of puzzles of
+    * each solution length.
+    * @param file corpus to check
+    * @param failures receives a description of the first few problems
+    * @return the number of puzzles
+    * @throws IOException if the file cannot be read
+    */
+   public static int validate(File file, final List<String> failures)
+         throws IOException {
+      final PuzzleCorpus corpus = PuzzleCorpus.load(file);
+      final int gridSize = corpus.getGridSize();
+      final AtomicLongArray lengths = new AtomicLongArray(MAX_LENGTH + 1);
+      final ThreadLocal<BoardState> boards = new ThreadLocal<BoardState>() {
+         @Override
+         protected BoardState initialValue() {
+            return new BoardState(gridSize);
+         }
+      };
+      runAll(new PuzzleJob() {
+         public void run(int index) {
+            String problem = check(corpus, index, boards.get());
+            if (problem != null) {
+               synchronized (failures) {
+                  if (failures.size() < MAX_REPORTED_FAILURES) {
+                     failures.add("puzzle " + index + ": " + problem);
+                  }
+               }
+            }
+            int length = corpus.getLength(index);
+            lengths.incrementAndGet(length < 0 ? MAX_LENGTH
+                  : Math.min(length, MAX_LENGTH - 1));
+         }
+      }, corpus.size());
+
+      System.out.printf("%dx%d, %d puzzles%n", gridSize, gridSize,
+            corpus.size());
+      for (int length = 0; length < MAX_LENGTH; length++) {
+         if (lengths.get(length) > 0) {
+            System.out.printf("%4d moves: %d%n", length, lengths.get(length));
+         }
+      }
+      if (lengths.get(MAX_LENGTH) > 0) {
+         System.out.printf("   unknown: %d%n", lengths.get(MAX_LENGTH));
+      }
+      return corpus.size();
+   }
+
+   /* (non-Javadoc)
+    * Describe what is wrong with a puzzle, or return null if nothing is.
+    */
+   private static String check(PuzzleCorpus corpus, int index,
+         BoardState board) {
+      int gridSize = corpus.getGridSize();
+      byte[] tiles = new byte[gridSize * gridSize];
+      corpus.getTiles(index, tiles);
+      try {
+         board.setTiles(tiles);
+      } catch (IllegalArgumentException e) {
+         return e.getMessage();
+      }
+      if (!Permutations.isSolvable(tiles, gridSize)) {
+         return "not solvable";
+      }
+      int length = corpus.getLength(index);
+      if (length >= 0 && gridSize == PerfectTable.GRID_SIZE
+            && PerfectTable.getInstance().distance(board) != length) {
+         return "length " + length + " is not the shortest";
+      }
+      int[] solution;
+      try {
+         solution = corpus.getSolution(index);
+      } catch (IllegalStateException e) {
+         return e.getMessage();
+      }
+      if (solution == null) {
+         return null;
+      }
+      for (int i = 0; i < solution.length; i++) {
+         if (!board.move(solution[i])) {
+            return "move " + i + " leaves the board";
+         }
+      }
+      return board.isSolved() ? null : "solution does not solve it";
+   }
+}
@@ -0,0 +1,258 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import net.chatam.android.photogaffe.engine.AdditivePatternDatabase;
+import net.chatam.android.photogaffe.engine.BoardState;
+import net.chatam.android.photogaffe.engine.PatternDatabase;
+
+/**
+ * Builds the additive pattern database for a grid size by breadth-first
+ * search backwards from the solved board, and writes it in the format
+ * AdditivePatternDatabase.load() maps.
+ * <pre>
+ *   java -Xmx2g -cp tools/target/photogaffe-tools.jar \
+ *      net.chatam.android.photogaffe.tools.PatternDatabaseGenerator 4 4x4.pdb
+ * </pre>
+ * The databases are for the tools, such as CorpusTool solve; the app does
+ * not ship one.
+ * A search state is the positions of one group's tiles plus the blank.  Only
+ * moves of the group's tiles cost anything; the blank wanders freely through
+ * the other positions, so every blank position reachable without moving a
+ * group tile is added to the same level at once.  Levels are kept as bit
+ * sets, which keeps the 4x4 6-tile and 5x5 5-tile searches within a few
+ * hundred megabytes.
+ */
+public final class PatternDatabaseGenerator {
+
+   private final BoardState board; // for neighbour and distance tables
+   private final int cellCount;
+   private final PatternDatabase pattern; // only used for rank and unrank
+   private final int tileCount;
+   private final int[] tiles;
+   private long[] visited;
+   private long[] current;
+   private long[] next;
+   private final int[] positions;
+   private final int[] owner; // group tile index at each position, or -1
+   private final int[] stack;
+   private final int[] marks; // flood-fill stamps per position
+   private int stamp;
+
+   private PatternDatabaseGenerator(int gridSize, int[] tiles) {
+      this.board = new BoardState(gridSize);
+      this.cellCount = gridSize * gridSize;
+      this.tiles = tiles;
+      this.tileCount = tiles.length;
+      long entries = PatternDatabase.entryCount(cellCount, tileCount);
+      this.pattern = new PatternDatabase(cellCount, tiles,
+            ByteBuffer.allocate((int) ((entries + 1) / 2)));
+      this.positions = new int[tileCount];
+      this.owner = new int[cellCount];
+      this.stack = new int[cellCount];
+      this.marks = new int[cellCount];
+   }
+
+   public static void main(String[] args) throws IOException {
+      if (args.length != 2) {
+         System.err.println("usage: PatternDatabaseGenerator <grid size> "
+               + "<output file>");
+         System.exit(2);
+      }
+      int gridSize = Integer.parseInt(args[0]);
+      int[][] partition = AdditivePatternDatabase.defaultPartition(gridSize);
+      if (partition == null) {
+         System.err.println("No tile groups defined for " + gridSize + "x"
+               + gridSize);
+         System.exit(2);
+      }
+      OutputStream out = new BufferedOutputStream(
+            new FileOutputStream(args[1]));
+      try {
+         generate(gridSize, partition).write(out);
+      } finally {
+         out.close();
+      }
+   }
+
+   /**
+    * Build the tables for every group of a partition.
+    * @param gridSize row and column count
+    * @param partition disjoint groups of tile ids
+    * @return the database, backed by heap buffers
+    */
+   public static AdditivePatternDatabase generate(int gridSize,
+         int[][] partition) {
+      PatternDatabase[] patterns = new PatternDatabase[partition.length];
+      for (int p = 0; p < partition.length; p++) {
+         long start = System.nanoTime();
+         patterns[p] = new PatternDatabaseGenerator(gridSize, partition[p])
+               .build();
+         System.err.printf("group %s: %d entries in %.1f s%n",
+               Arrays.toString(partition[p]), patterns[p].getEntryCount(),
+               (System.nanoTime() - start) / 1e9);
+      }
+      return new AdditivePatternDatabase(gridSize, patterns);
+   }
+
+   private PatternDatabase build() {
+      int entries = pattern.getEntryCount();
+      long states = (long) entries * cellCount;
+      int words = (int) ((states + 63) >>> 6);
+      visited = new long[words];
+      current = new long[words];
+      next = new long[words];
+      byte[] moves = new byte[entries];
+      Arrays.fill(moves, (byte) -1);
+
+      // Start from the solved board with the blank anywhere it can reach
+      for (int i = 0; i < tileCount; i++) {
+         positions[i] = tiles[i];
+      }
+      setOwners();
+      spread(pattern.rank(positions), cellCount - 1, current);
+
+      for (int depth = 0; ; depth++) {
+         boolean any = false;
+         int loadedRank = -1;
+         for (int word = 0; word < words; word++) {
+            long bits = current[word];
+            while (bits != 0) {
+               any = true;
+               long state = ((long) word << 6) + Long.numberOfTrailingZeros(bits);
+               bits &= bits - 1;
+               int rank = (int) (state / cellCount);
+               int blank = (int) (state % cellCount);
+               if (rank != loadedRank) {
+                  pattern.unrank(rank, positions);
+                  setOwners();
+                  loadedRank = rank;
+               }
+               if (moves[rank] < 0) {
+                  moves[rank] = (byte) depth;
+               }
+               expand(blank);
+            }
+         }
+         if (!any) {
+            break;
+         }
+         long[] swap = current;
+         current = next;
+         next = swap;
+         Arrays.fill(next, 0);
+      }
+      visited = current = next = null;
+
+      ByteBuffer data = ByteBuffer.allocate((entries + 1) / 2);
+      int clamped = 0;
+      for (int rank = 0; rank < entries; rank++) {
+         pattern.unrank(rank, positions);
+         int distance = 0;
+         for (int i = 0; i < tileCount; i++) {
+            distance += board.distance(tiles[i], positions[i]);
+         }
+         int extra = (moves[rank] - distance) / 2;
+         if (extra > PatternDatabase.MAX_EXTRA) {
+            extra = PatternDatabase.MAX_EXTRA;
+            clamped++;
+         }
+         int index = rank >> 1;
+         int packed = data.get(index);
+         packed |= (rank & 1) == 0 ? extra : extra << 4;
+         data.put(index, (byte) packed);
+      }
+      if (clamped > 0) {
+         System.err.println(clamped + " entries clamped to "
+               + PatternDatabase.MAX_EXTRA);
+      }
+      return new PatternDatabase(cellCount, tiles, data);
+   }
+
+   /* (non-Javadoc)
+    * Move each group tile next to the blank into the blank's spot.
+    */
+   private void expand(int blank) {
+      for (int direction = 0; direction < BoardState.DIRECTION_COUNT;
+            direction++) {
+         int from = board.neighbor(blank, direction);
+         if (from < 0 || owner[from] < 0) {
+            continue;
+         }
+         int i = owner[from];
+         positions[i] = blank;
+         owner[blank] = i;
+         owner[from] = -1;
+         spread(pattern.rank(positions), from, next);
+         positions[i] = from;
+         owner[from] = i;
+         owner[blank] = -1;
+      }
+   }
+
+   /* (non-Javadoc)
+    * Add every blank position reachable from the given one, without moving
+    * a group tile, to the level, unless the state was seen before.
+    */
+   private void spread(int rank, int blank, long[] level) {
+      long base = (long) rank * cellCount;
+      if (isSet(visited, base + blank)) {
+         return;
+      }
+      stamp++;
+      int top = 0;
+      stack[top++] = blank;
+      marks[blank] = stamp;
+      while (top > 0) {
+         int position = stack[--top];
+         set(visited, base + position);
+         set(level, base + position);
+         for (int direction = 0; direction < BoardState.DIRECTION_COUNT;
+               direction++) {
+            int neighbor = board.neighbor(position, direction);
+            if (neighbor >= 0 && owner[neighbor] < 0
+                  && marks[neighbor] != stamp) {
+               marks[neighbor] = stamp;
+               stack[top++] = neighbor;
+            }
+         }
+      }
+   }
+
+   private void setOwners() {
+      Arrays.fill(owner, -1);
+      for (int i = 0; i < tileCount; i++) {
+         owner[positions[i]] = i;
+      }
+   }
+
+   private static boolean isSet(long[] bits, long index) {
+      return (bits[(int) (index >>> 6)] & (1L << index)) != 0;
+   }
+
+   private static void set(long[] bits, long index) {
+      bits[(int) (index >>> 6)] |= 1L << index;
+   }
+}
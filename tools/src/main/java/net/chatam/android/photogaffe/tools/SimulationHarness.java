@@ -0,0 +1,416 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.tools;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import net.chatam.android.photogaffe.engine.BoardState;
+import net.chatam.android.photogaffe.engine.CancellationToken;
+import net.chatam.android.photogaffe.engine.MoveJournal;
+import net.chatam.android.photogaffe.engine.ReductionSolver;
+import net.chatam.android.photogaffe.engine.Scrambler;
+import net.chatam.android.photogaffe.engine.Scrambler.Difficulty;
+
+/**
+ * Replays puzzle sessions through the board logic without a device, on
+ * every core, and checks that the board keeps count correctly.
+ * <pre>
+ *   java -cp tools/target/photogaffe-tools.jar \
+ *      net.chatam.android.photogaffe.tools.SimulationHarness \
+ *      generate [sessions] [grid size] [seed]
+ *   java -cp tools/target/photogaffe-tools.jar \
+ *      net.chatam.android.photogaffe.tools.SimulationHarness \
+ *      replay file...
+ * </pre>
+ * generate scrambles a board for each session from consecutive seeds and
+ * plays the reduction solver's solution.  replay plays recorded sessions,
+ * one per line:
+ * <pre>
+ *   # grid size, tile at each position, moves of the blank (U D L R)
+ *   3 0,1,2,3,4,5,6,8,7 R
+ * </pre>
+ * After every move the harness compares the board's incremental solved and
+ * Manhattan counters with a full scan, and at the end it undoes the whole
+ * journal and checks the board is back where it started.
+ * Generated sessions are all scrambled and solved before the replay
+ * starts, and the two are timed apart, so the sessions/s and moves/s
+ * reported are the replay alone.
+ */
+public final class SimulationHarness {
+
+   private static final int SESSIONS_PER_TASK = 64; // smallest unit of work
+   private static final int MAX_REPORTED_FAILURES = 10;
+   private static final String DIRECTION_LETTERS = "UDLR"; // by direction
+
+   private SimulationHarness() {
+   }
+
+   /**
+    * One session: a starting board and the moves of the blank.
+    */
+   static final class Session {
+      final String name;
+      final int gridSize;
+      final byte[] tiles;
+      final int[] moves;
+      final boolean expectSolved; // should the last move solve the board?
+
+      Session(String name, int gridSize, byte[] tiles, int[] moves,
+            boolean expectSolved) {
+         this.name = name;
+         this.gridSize = gridSize;
+         this.tiles = tiles;
+         this.moves = moves;
+         this.expectSolved = expectSolved;
+      }
+   }
+
+   /**
+    * Totals over many sessions.
+    */
+   static final class Result {
+      long sessions;
+      long moves;
+      long solved;
+      final List<String> failures = new ArrayList<String>();
+
+      void add(Result other) {
+         sessions += other.sessions;
+         moves += other.moves;
+         solved += other.solved;
+         for (String failure : other.failures) {
+            if (failures.size() < MAX_REPORTED_FAILURES) {
+               failures.add(failure);
+            }
+         }
+      }
+
+      void fail(String message) {
+         if (failures.size() < MAX_REPORTED_FAILURES) {
+            failures.add(message);
+         }
+      }
+   }
+
+   /**
+    * Where sessions come from: generated from seeds or read from files.
+    */
+   interface SessionSource {
+      int size();
+
+      Session get(int index);
+   }
+
+   /* (non-Javadoc)
+    * Splits the session range in half until it is small, then makes each
+    * session of the range.
+    */
+   private static final class PrepareTask extends RecursiveAction {
+
+      private static final long serialVersionUID = 1L;
+      private final SessionSource source;
+      private final Session[] sessions;
+      private final int from;
+      private final int to;
+
+      PrepareTask(SessionSource source, Session[] sessions, int from,
+            int to) {
+         this.source = source;
+         this.sessions = sessions;
+         this.from = from;
+         this.to = to;
+      }
+
+      @Override
+      protected void compute() {
+         if (to - from > SESSIONS_PER_TASK) {
+            int middle = (from + to) >>> 1;
+            invokeAll(new PrepareTask(source, sessions, from, middle),
+                  new PrepareTask(source, sessions, middle, to));
+            return;
+         }
+         for (int i = from; i < to; i++) {
+            sessions[i] = source.get(i);
+         }
+      }
+   }
+
+   /* (non-Javadoc)
+    * Splits the session range in half until it is small, then plays each
+    * session on boards owned by this task.
+    */
+   private static final class SimulateTask extends RecursiveTask<Result> {
+
+      private static final long serialVersionUID = 1L;
+      private final SessionSource source;
+      private final int from;
+      private final int to;
+
+      SimulateTask(SessionSource source, int from, int to) {
+         this.source = source;
+         this.from = from;
+         this.to = to;
+      }
+
+      @Override
+      protected Result compute() {
+         if (to - from > SESSIONS_PER_TASK) {
+            int middle = (from + to) >>> 1;
+            SimulateTask left = new SimulateTask(source, from, middle);
+            left.fork();
+            Result result = new SimulateTask(source, middle, to).compute();
+            result.add(left.join());
+            return result;
+         }
+         Result result = new Result();
+         BoardState board = null;
+         MoveJournal journal = new MoveJournal();
+         for (int i = from; i < to; i++) {
+            Session session = source.get(i);
+            if (board == null || board.getGridSize() != session.gridSize) {
+               board = new BoardState(session.gridSize);
+            }
+            play(session, board, journal, result);
+         }
+         return result;
+      }
+   }
+
+   public static void main(String[] args) throws IOException {
+      if (args.length == 0) {
+         System.err.println("usage: SimulationHarness generate [sessions] "
+               + "[grid size] [seed] | replay file...");
+         System.exit(2);
+      }
+      ForkJoinPool pool = new ForkJoinPool();
+      SessionSource source;
+      if (args[0].equals("replay")) {
+         List<Session> sessions = new ArrayList<Session>();
+         for (int i = 1; i < args.length; i++) {
+            read(args[i], sessions);
+         }
+         source = listSource(sessions);
+      } else if (args[0].equals("generate")) {
+         int sessions = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+         int gridSize = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+         long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+         long prepareStart = System.nanoTime();
+         Session[] prepared = new Session[sessions];
+         pool.invoke(new PrepareTask(generatedSource(sessions, gridSize,
+               seed), prepared, 0, sessions));
+         System.out.printf("%d sessions scrambled and solved in %.2f s%n",
+               sessions, (System.nanoTime() - prepareStart) / 1e9);
+         source = listSource(Arrays.asList(prepared));
+      } else {
+         throw new IllegalArgumentException("Unknown command " + args[0]);
+      }
+
+      long start = System.nanoTime();
+      Result result = pool.invoke(new SimulateTask(source, 0, source.size()));
+      double seconds = (System.nanoTime() - start) / 1e9;
+      pool.shutdown();
+
+      System.out.printf("%d sessions, %d moves, %d solved in %.2f s "
+            + "on %d threads%n", result.sessions, result.moves,
+            result.solved, seconds, pool.getParallelism());
+      System.out.printf("%.0f sessions/s, %.0f moves/s%n",
+            result.sessions / seconds, result.moves / seconds);
+      for (String failure : result.failures) {
+         System.out.println("FAILED " + failure);
+      }
+      if (!result.failures.isEmpty()) {
+         System.exit(1);
+      }
+   }
+
+   /* (non-Javadoc)
+    * Play a session, checking the board after every move, then undo it
+    * all.
+    */
+   static void play(Session session, BoardState board, MoveJournal journal,
+         Result result) {
+      result.sessions++;
+      try {
+         board.setTiles(session.tiles);
+      } catch (IllegalArgumentException e) {
+         result.fail(session.name + ": " + e.getMessage());
+         return;
+      }
+      journal.clear();
+      for (int i = 0; i < session.moves.length; i++) {
+         int direction = session.moves[i];
+         if (!board.move(direction)) {
+            result.fail(session.name + ": move " + i + " leaves the board");
+            return;
+         }
+         journal.record(direction);
+         result.moves++;
+         String problem = check(board);
+         if (problem != null) {
+            result.fail(session.name + ": after move " + i + ", " + problem);
+            return;
+         }
+      }
+      if (board.isSolved()) {
+         result.solved++;
+      }
+      if (session.expectSolved && !board.isSolved()) {
+         result.fail(session.name + ": not solved after "
+               + session.moves.length + " moves");
+         return;
+      }
+      while (journal.canUndo()) {
+         board.move(BoardState.opposite(journal.undo()));
+      }
+      for (int position = 0; position < session.tiles.length; position++) {
+         if (board.getTileAt(position) != (session.tiles[position] & 0xFF)) {
+            result.fail(session.name + ": undo does not restore the start");
+            return;
+         }
+      }
+   }
+
+   /* (non-Javadoc)
+    * Compare the incremental counters with a full scan of the board.
+    */
+   private static String check(BoardState board) {
+      int misplaced = 0;
+      int manhattan = 0;
+      for (int position = 0; position < board.getCellCount(); position++) {
+         int tile = board.getTileAt(position);
+         if (tile == board.getBlankTile()) {
+            continue;
+         }
+         if (tile != position) {
+            misplaced++;
+         }
+         manhattan += Math.abs(board.getRow(tile) - board.getRow(position))
+               + Math.abs(board.getColumn(tile) - board.getColumn(position));
+      }
+      if (board.isSolved() != (misplaced == 0)) {
+         return "solved is " + board.isSolved() + " with " + misplaced
+               + " misplaced";
+      }
+      if (board.getManhattanDistance() != manhattan) {
+         return "Manhattan distance " + board.getManhattanDistance()
+               + ", expected " + manhattan;
+      }
+      return null;
+   }
+
+   /* (non-Javadoc)
+    * Makes session i from seed + i, so sessions can be made in any order on
+    * any thread.  Solvers are per thread since they are not thread safe.
+    */
+   private static SessionSource generatedSource(final int sessions,
+         final int gridSize, final long seed) {
+      final ThreadLocal<BoardState> boards = new ThreadLocal<BoardState>() {
+         @Override
+         protected BoardState initialValue() {
+            return new BoardState(gridSize);
+         }
+      };
+      final ThreadLocal<ReductionSolver> solvers =
+            new ThreadLocal<ReductionSolver>() {
+         @Override
+         protected ReductionSolver initialValue() {
+            return new ReductionSolver(gridSize);
+         }
+      };
+      return new SessionSource() {
+         public int size() {
+            return sessions;
+         }
+
+         public Session get(int index) {
+            BoardState board = boards.get();
+            new Scrambler(board).scramble(Difficulty.RANDOM, seed + index);
+            byte[] tiles = new byte[board.getCellCount()];
+            board.copyTiles(tiles);
+            int[] moves = solvers.get().solve(board, new CancellationToken());
+            return new Session("seed " + (seed + index), gridSize, tiles,
+                  moves, true);
+         }
+      };
+   }
+
+   private static SessionSource listSource(final List<Session> sessions) {
+      return new SessionSource() {
+         public int size() {
+            return sessions.size();
+         }
+
+         public Session get(int index) {
+            return sessions.get(index);
+         }
+      };
+   }
+
+   /* (non-Javadoc)
+    * Read recorded sessions in the format described above.  Sessions are
+    * expected to end solved, as a finished game does.
+    */
+   static void read(String file, List<Session> sessions) throws IOException {
+      try (BufferedReader in = Files.newBufferedReader(Paths.get(file),
+            StandardCharsets.UTF_8)) {
+         String line;
+         int lineNumber = 0;
+         while ((line = in.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+               continue;
+            }
+            String name = file + ":" + lineNumber;
+            String[] fields = line.split("\\s+");
+            if (fields.length < 2 || fields.length > 3) {
+               throw new IOException(name + ": expected 2 or 3 fields");
+            }
+            int gridSize = Integer.parseInt(fields[0]);
+            if (gridSize < 2 || gridSize > BoardState.MAX_GRID_SIZE) {
+               throw new IOException(name + ": bad grid size " + gridSize);
+            }
+            String[] cells = fields[1].split(",");
+            byte[] tiles = new byte[cells.length];
+            for (int i = 0; i < cells.length; i++) {
+               tiles[i] = (byte) Integer.parseInt(cells[i]);
+            }
+            String letters = fields.length > 2 ? fields[2] : "";
+            int[] moves = new int[letters.length()];
+            for (int i = 0; i < moves.length; i++) {
+               moves[i] = DIRECTION_LETTERS.indexOf(letters.charAt(i));
+               if (moves[i] < 0) {
+                  throw new IOException(name + ": bad move "
+                        + letters.charAt(i));
+               }
+            }
+            sessions.add(new Session(name, gridSize, tiles, moves, true));
+         }
+      }
+   }
+}
@@ -0,0 +1,88 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.tools;
+
+import java.util.Random;
+
+import net.chatam.android.photogaffe.engine.BoardState;
+import net.chatam.android.photogaffe.engine.CancellationToken;
+import net.chatam.android.photogaffe.engine.ReductionSolver;
+
+/**
+ * Solves random boards of each grid size with the reduction solver and
+ * reports the solve time and solution length.
+ * <pre>
+ *   java -cp tools/target/photogaffe-tools.jar \
+ *      net.chatam.android.photogaffe.tools.SolverBenchmark [max size] [boards] [seed]
+ * </pre>
+ */
+public final class SolverBenchmark {
+
+   private SolverBenchmark() {
+   }
+
+   public static void main(String[] args) {
+      int maxSize = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+      int boards = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+      long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+      Random random = new Random(seed);
+
+      System.out.printf("%-6s %10s %10s %10s %10s%n",
+            "grid", "avg ms", "max ms", "avg moves", "max moves");
+      for (int gridSize = 3; gridSize <= maxSize; gridSize++) {
+         BoardState board = new BoardState(gridSize);
+         ReductionSolver solver = new ReductionSolver(gridSize);
+         BoardState check = new BoardState(gridSize);
+         byte[] tiles = new byte[board.getCellCount()];
+
+         // Warm up the JIT so the first size is not penalised
+         for (int i = 0; i < 10; i++) {
+            board.shuffle(random);
+            solver.solve(board, new CancellationToken());
+         }
+
+         long totalNanos = 0;
+         long maxNanos = 0;
+         long totalMoves = 0;
+         int maxMoves = 0;
+         for (int i = 0; i < boards; i++) {
+            board.shuffle(random);
+            long start = System.nanoTime();
+            int[] solution = solver.solve(board, new CancellationToken());
+            long nanos = System.nanoTime() - start;
+
+            board.copyTiles(tiles);
+            check.setTiles(tiles);
+            for (int direction : solution) {
+               check.move(direction);
+            }
+            if (!check.isSolved()) {
+               throw new IllegalStateException("Invalid solution for "
+                     + gridSize + "x" + gridSize);
+            }
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            totalMoves += solution.length;
+            maxMoves = Math.max(maxMoves, solution.length);
+         }
+         System.out.printf("%-6s %10.2f %10.2f %10d %10d%n",
+               gridSize + "x" + gridSize, totalNanos / 1e6 / boards,
+               maxNanos / 1e6, totalMoves / boards, maxMoves);
+      }
+   }
+}
@@ -0,0 +1,106 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+   private static final long MAX_MICROS = 1L << 41; // past the last bucket
+
+   @Test
+   public void smallValuesHaveABucketEach() {
+      assertEquals(15, LatencyHistogram.bucketOf(15));
+      assertEquals(15, LatencyHistogram.highestInBucket(15));
+      assertEquals(16, LatencyHistogram.bucketOf(16));
+      assertEquals(16, LatencyHistogram.highestInBucket(16));
+   }
+
+   @Test
+   public void bucketsWidenAtEachPowerOfTwo() {
+      assertEquals(31, LatencyHistogram.bucketOf(31));
+      assertEquals(31, LatencyHistogram.highestInBucket(31));
+      assertEquals(32, LatencyHistogram.bucketOf(32));
+      assertEquals(32, LatencyHistogram.bucketOf(33));
+      assertEquals(33, LatencyHistogram.highestInBucket(32));
+      assertEquals(33, LatencyHistogram.bucketOf(34));
+   }
+
+   @Test
+   public void largestExponentIsKept() {
+      int bucket = LatencyHistogram.bucketOf(1L << 40);
+      assertEquals(bucket, LatencyHistogram.bucketOf((1L << 40) + 1));
+      assertTrue(bucket > LatencyHistogram.bucketOf((1L << 40) - 1));
+      assertEquals(LatencyHistogram.bucketOf(MAX_MICROS - 1),
+            LatencyHistogram.bucketOf(Long.MAX_VALUE));
+      assertEquals(MAX_MICROS - 1, LatencyHistogram.highestInBucket(
+            LatencyHistogram.bucketOf(Long.MAX_VALUE)));
+   }
+
+   @Test
+   public void everyValueIsReportedLessThanASixteenthHigh() {
+      for (long micros = 1; micros < MAX_MICROS; micros += micros / 7 + 1) {
+         check(micros);
+         check(micros - 1);
+         check(Long.highestOneBit(micros));
+      }
+   }
+
+   private static void check(long micros) {
+      long highest = LatencyHistogram.highestInBucket(
+            LatencyHistogram.bucketOf(micros));
+      assertTrue(micros + " in a lower bucket", highest >= micros);
+      assertTrue(micros + " reported as " + highest,
+            (highest - micros) * 16 < Math.max(micros, 1));
+   }
+
+   @Test
+   public void percentilesOfOneToAHundred() {
+      LatencyHistogram histogram = new LatencyHistogram();
+      for (int micros = 100; micros >= 1; micros--) {
+         histogram.record(micros * 1000L);
+      }
+      assertEquals(100, histogram.getCount());
+      assertEquals(1000, histogram.percentile(0)); // the smallest value
+      assertEquals(51000, histogram.percentile(0.5)); // 50 is in 50..51
+      assertEquals(100000, histogram.percentile(1.0)); // capped at the max
+      assertEquals(100000, histogram.getMax());
+      assertEquals(50500, histogram.getMean());
+   }
+
+   @Test
+   public void emptyAndResetHistogramsReportZero() {
+      LatencyHistogram histogram = new LatencyHistogram();
+      assertEquals(0, histogram.percentile(0.5));
+      histogram.record(5000);
+      histogram.reset();
+      assertEquals(0, histogram.getCount());
+      assertEquals(0, histogram.percentile(1.0));
+   }
+
+   @Test
+   public void negativeDurationsCountAsZero() {
+      LatencyHistogram histogram = new LatencyHistogram();
+      histogram.record(-5000);
+      assertEquals(0, histogram.getMax());
+      assertEquals(1, histogram.getCount());
+   }
+}
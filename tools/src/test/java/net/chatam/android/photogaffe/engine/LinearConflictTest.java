@@ -0,0 +1,108 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.engine;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class LinearConflictTest {
+
+   private static final int MAX_LENGTH = 7;
+
+   @Test
+   public void fiveTilesNeedOnlyTwoToLeave() {
+      // taking out the tile with the most conflicts first would give 6
+      assertEquals(4, new LinearConflict(5).line(new int[] { 1, 3, 0, 4, 2 },
+            5));
+   }
+
+   @Test
+   public void everyOrderUpToSevenTiles() {
+      for (int length = 1; length <= MAX_LENGTH; length++) {
+         LinearConflict conflict = new LinearConflict(length);
+         int[] goals = new int[length];
+         for (int i = 0; i < length; i++) {
+            goals[i] = i;
+         }
+         do {
+            assertEquals(Arrays.toString(goals),
+                  2 * (length - longestIncreasing(goals)),
+                  conflict.line(goals.clone(), length));
+         } while (nextPermutation(goals));
+      }
+   }
+
+   @Test
+   public void solvedBoardHasNoConflicts() {
+      assertEquals(0, new LinearConflict(5).total(new BoardState(5)));
+   }
+
+   /* (non-Javadoc)
+    * The largest set of positions whose goals increase, by trying them all.
+    */
+   private static int longestIncreasing(int[] goals) {
+      int best = 0;
+      for (int subset = 0; subset < 1 << goals.length; subset++) {
+         int last = -1;
+         boolean increasing = true;
+         for (int i = 0; i < goals.length && increasing; i++) {
+            if ((subset & (1 << i)) != 0) {
+               increasing = goals[i] > last;
+               last = goals[i];
+            }
+         }
+         if (increasing) {
+            best = Math.max(best, Integer.bitCount(subset));
+         }
+      }
+      return best;
+   }
+
+   /* (non-Javadoc)
+    * Step to the next permutation in lexicographic order; false after the
+    * last.
+    */
+   private static boolean nextPermutation(int[] items) {
+      int i = items.length - 2;
+      while (i >= 0 && items[i] >= items[i + 1]) {
+         i--;
+      }
+      if (i < 0) {
+         return false;
+      }
+      int j = items.length - 1;
+      while (items[j] <= items[i]) {
+         j--;
+      }
+      swap(items, i, j);
+      for (int low = i + 1, high = items.length - 1; low < high;
+            low++, high--) {
+         swap(items, low, high);
+      }
+      return true;
+   }
+
+   private static void swap(int[] items, int i, int j) {
+      int item = items[i];
+      items[i] = items[j];
+      items[j] = item;
+   }
+}
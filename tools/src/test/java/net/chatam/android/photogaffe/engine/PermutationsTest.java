@@ -0,0 +1,72 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.engine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PermutationsTest {
+
+   @Test
+   public void everyRankOfSixRoundTrips() {
+      byte[] items = new byte[6];
+      for (long rank = 0; rank < 720; rank++) {
+         Permutations.unrank(rank, items, 6);
+         assertEquals(rank, Permutations.rank(items, 6));
+      }
+   }
+
+   @Test
+   public void ranksAreInLexicographicOrder() {
+      byte[] items = new byte[4];
+      Permutations.unrank(0, items, 4);
+      assertArrayEquals(new byte[] { 0, 1, 2, 3 }, items);
+      Permutations.unrank(1, items, 4);
+      assertArrayEquals(new byte[] { 0, 1, 3, 2 }, items);
+      Permutations.unrank(23, items, 4);
+      assertArrayEquals(new byte[] { 3, 2, 1, 0 }, items);
+   }
+
+   @Test
+   public void twentyValuesRoundTrip() {
+      Random random = new Random(1);
+      byte[] items = new byte[20];
+      byte[] again = new byte[20];
+      for (int trial = 0; trial < 1000; trial++) {
+         for (int i = 0; i < items.length; i++) {
+            int j = random.nextInt(i + 1);
+            items[i] = items[j];
+            items[j] = (byte) i;
+         }
+         Permutations.unrank(Permutations.rank(items, 20), again, 20);
+         assertArrayEquals(items, again);
+      }
+   }
+
+   @Test
+   public void rankSkipsTheBlank() {
+      byte[] tiles = { 8, 1, 0, 2, 3, 4, 5, 6, 7 };
+      byte[] items = new byte[8];
+      Permutations.unrank(Permutations.rank(tiles, 8), items, 8);
+      assertArrayEquals(new byte[] { 1, 0, 2, 3, 4, 5, 6, 7 }, items);
+   }
+}
@@ -0,0 +1,116 @@
+/*
+Copyright (C) 2011  Wade Chatam
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.chatam.android.photogaffe.engine;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class PictureSizingTest {
+
+   private static final int BOARD = 480;
+   private static final long PLENTY = 64L * 1024 * 1024;
+
+   @Test
+   public void tinyImageIsUsedWhole() {
+      check(100, 100, PLENTY, 0, 0, 100, 100, 1, PictureSizing.FULL_COLOR);
+   }
+
+   @Test
+   public void exactFitIsNotSampled() {
+      check(BOARD, BOARD, PLENTY, 0, 0, BOARD, BOARD, 1,
+            PictureSizing.FULL_COLOR);
+   }
+
+   @Test
+   public void twiceTheBoardIsHalved() {
+      check(960, 960, PLENTY, 0, 0, 960, 960, 2, PictureSizing.FULL_COLOR);
+   }
+
+   @Test
+   public void eightTimesTheBoardIsSampledByEight() {
+      check(3840, 3840, PLENTY, 0, 0, 3840, 3840, 8,
+            PictureSizing.FULL_COLOR);
+   }
+
+   @Test
+   public void justUnderTwiceIsNotSampled() {
+      check(959, 959, PLENTY, 0, 0, 959, 959, 1, PictureSizing.FULL_COLOR);
+   }
+
+   @Test
+   public void panoramaKeepsTheMiddle() {
+      // 3:1 is cropped to 1.5:1 around the centre
+      check(3000, 1000, PLENTY, 750, 0, 2250, 1000, 2,
+            PictureSizing.FULL_COLOR);
+   }
+
+   @Test
+   public void portraitKeepsTheMiddle() {
+      check(1000, 3000, PLENTY, 0, 750, 1000, 2250, 2,
+            PictureSizing.FULL_COLOR);
+   }
+
+   @Test
+   public void slightlyWideIsStretchedNotCropped() {
+      check(1400, 1000, PLENTY, 0, 0, 1400, 1000, 2,
+            PictureSizing.FULL_COLOR);
+   }
+
+   @Test
+   public void lowHeapFallsBackTo565() {
+      // 480x480 decoded plus the 480x480 board copy: 1.8 MB in ARGB_8888
+      check(3840, 3840, 1000000, 0, 0, 3840, 3840, 8,
+            PictureSizing.LOW_COLOR);
+   }
+
+   @Test
+   public void veryLowHeapAlsoSamplesFurther() {
+      check(3840, 3840, 800000, 0, 0, 3840, 3840, 16,
+            PictureSizing.LOW_COLOR);
+   }
+
+   @Test
+   public void decodersRoundPartialSamplesUp() {
+      assertEquals(4, PictureSizing.decodedPixels(3, 3, 2));
+      assertEquals(240 * 240, PictureSizing.decodedPixels(3840, 3840, 16));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void emptyImageIsRejected() {
+      PictureSizing.plan(0, 100, BOARD, BOARD, PLENTY);
+   }
+
+   private static void check(int imageWidth, int imageHeight, long maxBytes,
+         int left, int top, int right, int bottom, int sampleSize,
+         int bytesPerPixel) {
+      PictureSizing sizing = PictureSizing.plan(imageWidth, imageHeight,
+            BOARD, BOARD, maxBytes);
+      assertEquals("left", left, sizing.getLeft());
+      assertEquals("top", top, sizing.getTop());
+      assertEquals("right", right, sizing.getRight());
+      assertEquals("bottom", bottom, sizing.getBottom());
+      assertEquals("sample size", sampleSize, sizing.getSampleSize());
+      assertEquals("bytes per pixel", bytesPerPixel,
+            sizing.getBytesPerPixel());
+      boolean cropped = left > 0 || top > 0 || right < imageWidth
+            || bottom < imageHeight;
+      assertEquals("cropped", cropped,
+            sizing.isCropped(imageWidth, imageHeight));
+   }
+}